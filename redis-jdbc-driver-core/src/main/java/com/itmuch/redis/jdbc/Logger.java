@@ -1,23 +1,195 @@
 package com.itmuch.redis.jdbc;
 
 import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Level;
 
+/**
+ * Logging facade of the driver, off by default.
+ * <p>
+ * The backend is chosen once with the system property {@value #BACKEND_PROPERTY}:
+ * <ul>
+ *     <li>{@code none}: nothing is logged, the default;</li>
+ *     <li>{@code stdout}: everything is printed to {@code System.out};</li>
+ *     <li>{@code jul}: {@code java.util.logging}, {@link #log} at FINE and {@link #warn} at WARNING,
+ *     under the logger {@value #ROOT_NAME} that {@code Driver.getParentLogger()} returns;</li>
+ *     <li>{@code slf4j}: SLF4J, {@link #log} at DEBUG and {@link #warn} at WARN, if it is on the classpath.</li>
+ * </ul>
+ * A disabled call returns before formatting anything, warnings included; the fixed-arity overloads of {@link #log}
+ * also spare the varargs array.
+ */
 public class Logger {
-    private final Class<?> mark;
+    /**
+     * parent of the loggers of every driver class
+     */
+    public static final String ROOT_NAME = "com.itmuch.redis.jdbc";
+    public static final String BACKEND_PROPERTY = "redis.jdbc.logger";
+
+    private static final String BACKEND = System.getProperty(BACKEND_PROPERTY, "none").trim().toLowerCase(Locale.ROOT);
+
+    private final Sink sink;
 
     public Logger(Class<?> mark) {
-        this.mark = mark;
-    }
-
-    public synchronized void log(String format, Object... arguments) {
-        Object[] objs = Arrays.stream(arguments)
-                .map(t -> {
-                    if (t instanceof Throwable) {
-                        Throwable th = (Throwable) t;
-                        return th.getMessage();
-                    }
-                    return t;
-                }).toArray(Object[]::new);
-        System.out.printf(mark + ":::" + format + "\n", objs);
+        this.sink = createSink(mark);
+    }
+
+    /**
+     * The JUL logger all the driver loggers hang under, for {@code Driver.getParentLogger()}.
+     */
+    public static java.util.logging.Logger getParentLogger() {
+        return java.util.logging.Logger.getLogger(ROOT_NAME);
+    }
+
+    public boolean isEnabled() {
+        return this.sink != null && this.sink.isDebugEnabled();
+    }
+
+    public void log(String message) {
+        if (this.isEnabled()) {
+            this.sink.debug(message);
+        }
+    }
+
+    public void log(String format, Object argument) {
+        if (this.isEnabled()) {
+            this.sink.debug(format(format, argument));
+        }
+    }
+
+    public void log(String format, Object argument1, Object argument2) {
+        if (this.isEnabled()) {
+            this.sink.debug(format(format, argument1, argument2));
+        }
+    }
+
+    public void log(String format, Object argument1, Object argument2, Object argument3) {
+        if (this.isEnabled()) {
+            this.sink.debug(format(format, argument1, argument2, argument3));
+        }
+    }
+
+    public void log(String format, Object... arguments) {
+        if (this.isEnabled()) {
+            this.sink.debug(format(format, arguments));
+        }
+    }
+
+    /**
+     * Log a failure, with its stack trace where the backend supports it.
+     */
+    public void warn(String message, Throwable cause) {
+        if (this.sink != null && this.sink.isWarnEnabled()) {
+            this.sink.warn(message, cause);
+        }
+    }
+
+    /**
+     * Log a failure, formatting the message only if warnings are enabled. As with SLF4J, a last argument
+     * that is a {@link Throwable} is the cause, not an argument of the format.
+     */
+    public void warn(String format, Object... arguments) {
+        if (this.sink != null && this.sink.isWarnEnabled()) {
+            int last = arguments.length - 1;
+            if (last >= 0 && arguments[last] instanceof Throwable) {
+                this.sink.warn(format(format, Arrays.copyOf(arguments, last)), (Throwable) arguments[last]);
+            } else {
+                this.sink.warn(format(format, arguments), null);
+            }
+        }
+    }
+
+    private static String format(String format, Object... arguments) {
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i] instanceof Throwable) {
+                arguments[i] = ((Throwable) arguments[i]).getMessage();
+            }
+        }
+        return String.format(format, arguments);
+    }
+
+    private static Sink createSink(Class<?> mark) {
+        switch (BACKEND) {
+            case "stdout":
+                return new StdoutSink(mark);
+            case "jul":
+                return new JulSink(mark.getName());
+            case "slf4j":
+                try {
+                    return new Slf4jSink(mark);
+                } catch (LinkageError e) {
+                    // SLF4J is an optional dependency
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    interface Sink {
+        boolean isDebugEnabled();
+
+        boolean isWarnEnabled();
+
+        void debug(String message);
+
+        void warn(String message, Throwable cause);
+    }
+
+    private static class StdoutSink implements Sink {
+        private final String prefix;
+
+        StdoutSink(Class<?> mark) {
+            this.prefix = mark + ":::";
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        @Override
+        public void debug(String message) {
+            System.out.println(this.prefix + message);
+        }
+
+        @Override
+        public void warn(String message, Throwable cause) {
+            System.out.println(this.prefix + message + (cause == null ? "" : ": " + cause));
+        }
+    }
+
+    private static class JulSink implements Sink {
+        private final String name;
+        private final java.util.logging.Logger logger;
+
+        JulSink(String name) {
+            this.name = name;
+            this.logger = java.util.logging.Logger.getLogger(name);
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return this.logger.isLoggable(Level.FINE);
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return this.logger.isLoggable(Level.WARNING);
+        }
+
+        @Override
+        public void debug(String message) {
+            this.logger.logp(Level.FINE, this.name, null, message);
+        }
+
+        @Override
+        public void warn(String message, Throwable cause) {
+            this.logger.logp(Level.WARNING, this.name, null, message, cause);
+        }
     }
 }
@@ -1,11 +1,171 @@
 package com.itmuch.redis.jdbc;
 
+import com.itmuch.redis.jdbc.conf.Op;
+
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface RedisClient {
-    String[] sendCommand(String sql) throws SQLException;
+    /**
+     * Parse the sql without executing it, the op may come from the statement cache.
+     */
+    Op parse(String sql) throws SQLException;
+
+    /**
+     * @return the raw reply, left undecoded: {@code byte[]} for bulk and status replies, {@code Long} for integers,
+     * a {@code List} of those for multi-bulk replies, or null
+     */
+    Object sendCommand(String sql) throws SQLException;
+
+    /**
+     * Send the command without waiting for its reply.
+     * <p>
+     * This default runs {@link #sendCommand(String)} in the calling thread; a pipelining client returns at once,
+     * with many commands in flight.
+     *
+     * @return completed with the raw reply, see {@link #sendCommand(String)}, or exceptionally with an {@link SQLException}
+     */
+    default CompletableFuture<Object> sendCommandAsync(String sql) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        try {
+            future.complete(this.sendCommand(sql));
+        } catch (SQLException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Execute an already parsed op with binary params, skipping the parser entirely.
+     *
+     * @param op     provides the command and the hints, its own params are ignored
+     * @param params the encoded params to send
+     * @return the raw reply, see {@link #sendCommand(String)}
+     */
+    Object sendCommand(Op op, byte[][] params) throws SQLException;
+
+    /**
+     * Stream a KEYS or scan query page by page, for the {@code streamingScan} property.
+     * <p>
+     * This default drives one SCAN cursor through {@link #sendCommand(Op, byte[][])}.
+     *
+     * @return a streaming result set, or null if the op is not a KEYS or scan command that can be streamed
+     * @see RedisScanResultSet#of(Op, RedisClient, int, boolean, Statement)
+     */
+    default ResultSet scan(Op op, int fetchSize, boolean shapeResults, Statement owningStatement) throws SQLException {
+        return RedisScanResultSet.of(op, this, fetchSize, shapeResults, owningStatement);
+    }
 
+    /**
+     * Pipeline the commands, flushing every {@code maxBatchSize} commands.
+     *
+     * @return one update count per command, {@link java.sql.Statement#EXECUTE_FAILED} for the ones Redis rejected
+     * @throws java.sql.BatchUpdateException if any command failed
+     */
+    int[] executeBatch(List<String> sqls) throws SQLException;
+
+    /**
+     * Same as {@link #executeBatch(List)} for one parsed op executed with several sets of binary params.
+     */
+    int[] executeBatch(Op op, List<byte[][]> paramsList) throws SQLException;
+
+    /**
+     * Pipeline one op with several sets of binary params and return the raw replies.
+     *
+     * @return one raw reply per params, in order; an error replied by Redis is returned as an exception object
+     */
+    List<Object> sendPipelined(Op op, List<byte[][]> paramsList) throws SQLException;
+
+    /**
+     * Switch the db of the connection; an implementation may defer the SELECT and send it along with the next command.
+     */
     void select(int dbIndex) throws SQLException;
 
+    /**
+     * Run the call holding the client, with every socket read of its commands bounded by the timeout.
+     * <p>
+     * This default runs the call with the read timeout of the connection.
+     *
+     * @throws java.sql.SQLTimeoutException if a read timed out; the client is on a fresh socket again
+     */
+    default <T> T withQueryTimeout(int timeoutMillis, Call<T> call) throws SQLException {
+        return call.call();
+    }
+
+    /**
+     * @return whether {@link #withQueryTimeout(int, Call)} bounds the commands of the call; if not,
+     * {@code Statement.setQueryTimeout} is rejected rather than ignored
+     */
+    default boolean supportsQueryTimeout() {
+        return false;
+    }
+
+    /**
+     * Run the call on behalf of the owner, a statement for instance: {@link #cancel(Object)} with the same owner
+     * aborts its commands, and only them.
+     * <p>
+     * This default only runs the call.
+     */
+    default <T> T withOwner(Object owner, Call<T> call) throws SQLException {
+        return call.call();
+    }
+
+    /**
+     * Abort the command in flight, from another thread, if it runs on behalf of the owner, see
+     * {@link #withOwner(Object, Call)}; the command of another owner is left alone. The aborted call fails
+     * with SQLState {@code 57014} and the client moves to a fresh socket before returning.
+     */
+    default void cancel(Object owner) throws SQLException {
+        throw new SQLFeatureNotSupportedException("cancel not implemented");
+    }
+
+    /**
+     * Health probe for {@code Connection.isValid}, cheap enough to run on every borrow from a pool.
+     * <p>
+     * This default sends PING through {@link #sendCommand(String)}.
+     *
+     * @param timeoutMillis 0 for the read timeout of the connection
+     * @return whether the server answered in time
+     */
+    default boolean ping(int timeoutMillis) {
+        try {
+            this.withQueryTimeout(timeoutMillis, () -> this.sendCommand("PING"));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether the connection only reads, from {@code Connection.setReadOnly}: a client with replicas may then
+     * send its read-only commands to them.
+     * <p>
+     * This default ignores the hint.
+     */
+    default void setReadOnly(boolean readOnly) throws SQLException {
+    }
+
+    /**
+     * Set the read timeout of the socket, 0 for none.
+     */
+    default void setNetworkTimeout(int timeoutMillis) throws SQLException {
+        throw new SQLFeatureNotSupportedException("setNetworkTimeout not implemented");
+    }
+
+    default int getNetworkTimeout() throws SQLException {
+        throw new SQLFeatureNotSupportedException("getNetworkTimeout not implemented");
+    }
+
     void close();
+
+    /**
+     * A call to the client, see {@link #withQueryTimeout(int, Call)}.
+     */
+    interface Call<T> {
+        T call() throws SQLException;
+    }
 }
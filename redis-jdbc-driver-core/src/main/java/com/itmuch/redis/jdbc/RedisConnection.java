@@ -4,19 +4,39 @@ import java.sql.*;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class RedisConnection implements Connection {
     private final static Logger LOGGER = new Logger(RedisConnection.class);
 
     private final RedisClient redisClient;
     private final Properties properties;
-
-    private String dbIndex;
+    /**
+     * whether KEYS and the scan commands are streamed through a SCAN cursor, see {@link RedisScanResultSet}
+     */
+    private final boolean streamingScan;
+    /**
+     * whether replies get command-aware columns, see {@link ResultShape}, rather than one flattened column
+     */
+    private final boolean shapeResults;
+
+    private volatile String dbIndex;
+    /**
+     * makes the check, the switch of the client and the update of {@link #dbIndex} one step, so that concurrent
+     * {@link #setSchema(String)} calls leave the client on the db {@link #getSchema()} returns
+     */
+    private final ReentrantLock schemaLock = new ReentrantLock();
+    private volatile boolean readOnly = false;
 
     public RedisConnection(RedisClient redisClient, String dbIndex, Properties properties) {
         this.redisClient = redisClient;
         this.dbIndex = dbIndex;
         this.properties = properties;
+
+        String streamingScanString = properties.getProperty("streamingScan");
+        this.streamingScan = "on".equalsIgnoreCase(streamingScanString) || "true".equalsIgnoreCase(streamingScanString);
+        String shapeResultsString = properties.getProperty("shapeResults", "true");
+        this.shapeResults = "on".equalsIgnoreCase(shapeResultsString) || "true".equalsIgnoreCase(shapeResultsString);
     }
 
     private boolean isClosed = false;
@@ -30,9 +50,8 @@ public class RedisConnection implements Connection {
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        // TODO 暂不实现，感觉意义不大，未来看是否需要实现
-        LOGGER.log("prepareStatement not implemented");
-        throw new SQLFeatureNotSupportedException("prepareStatement not implemented");
+        this.checkClosed();
+        return new RedisPreparedStatement(this, this.redisClient, sql);
     }
 
     @Override
@@ -69,6 +88,9 @@ public class RedisConnection implements Connection {
 
     @Override
     public void close() throws SQLException {
+        if (this.isClosed) {
+            return;
+        }
         this.redisClient.close();
         LOGGER.log("Connection close");
         this.isClosed = true;
@@ -87,12 +109,14 @@ public class RedisConnection implements Connection {
 
     @Override
     public void setReadOnly(boolean readOnly) throws SQLException {
-        // do nothing
+        this.checkClosed();
+        this.redisClient.setReadOnly(readOnly);
+        this.readOnly = readOnly;
     }
 
     @Override
     public boolean isReadOnly() throws SQLException {
-        return false;
+        return this.readOnly;
     }
 
     @Override
@@ -243,16 +267,13 @@ public class RedisConnection implements Connection {
     @Override
     public boolean isValid(int timeout) throws SQLException {
         LOGGER.log("isValid = %s", isClosed);
-        if (this.isClosed) {
-            return false;
+        if (timeout < 0) {
+            throw new SQLException("timeout must be >= 0, got " + timeout);
         }
-        // TODO 超时时间
-        try {
-            this.redisClient.sendCommand("PING");
-            return true;
-        } catch (Exception e) {
+        if (this.isClosed) {
             return false;
         }
+        return this.redisClient.ping(timeout * 1000);
     }
 
     @Override
@@ -295,23 +316,25 @@ public class RedisConnection implements Connection {
 
     @Override
     public void setSchema(String schema) throws SQLException {
-        synchronized (RedisConnection.class) {
-            LOGGER.log("setSchema(%s)", schema);
-            this.checkClosed();
-
+        LOGGER.log("setSchema(%s)", schema);
+        this.checkClosed();
+        this.schemaLock.lock();
+        try {
+            // even if it is the schema of this connection: a SELECT statement may have moved the client since,
+            // and the client skips the switch to the db it is on
             this.redisClient.select(Integer.parseInt(schema));
 
             this.dbIndex = schema;
+        } finally {
+            this.schemaLock.unlock();
         }
     }
 
     @Override
     public String getSchema() throws SQLException {
-        synchronized (RedisConnection.class) {
-            this.checkClosed();
-            LOGGER.log("getSchema() = %s", this.dbIndex);
-            return this.dbIndex;
-        }
+        this.checkClosed();
+        LOGGER.log("getSchema() = %s", this.dbIndex);
+        return this.dbIndex;
     }
 
     @Override
@@ -320,20 +343,32 @@ public class RedisConnection implements Connection {
         throw new SQLFeatureNotSupportedException("abort not implemented");
     }
 
+    /**
+     * Sets the read timeout of the socket, the {@code timeout} property being the initial one.
+     * A read that times out fails its command and the connection moves to a fresh socket.
+     */
     @Override
     public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
-        LOGGER.log("setNetworkTimeout not implemented");
-        throw new SQLFeatureNotSupportedException("setNetworkTimeout not implemented");
+        LOGGER.log("setNetworkTimeout(%s)", milliseconds);
+        this.checkClosed();
+        if (milliseconds < 0) {
+            throw new SQLException("network timeout must be >= 0, got " + milliseconds);
+        }
+        this.redisClient.setNetworkTimeout(milliseconds);
     }
 
     @Override
     public int getNetworkTimeout() throws SQLException {
-        LOGGER.log("getNetworkTimeout not implemented");
-        throw new SQLFeatureNotSupportedException("getNetworkTimeout not implemented");
+        this.checkClosed();
+        return this.redisClient.getNetworkTimeout();
     }
 
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
+        // gives access to client level details, e.g. statement cache statistics
+        if (!iface.isInstance(this) && iface.isInstance(this.redisClient)) {
+            return iface.cast(this.redisClient);
+        }
         try {
             return iface.cast(this);
         } catch (ClassCastException cce) {
@@ -345,7 +380,15 @@ public class RedisConnection implements Connection {
     @Override
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
         this.checkClosed();
-        return iface.isInstance(this);
+        return iface.isInstance(this) || iface.isInstance(this.redisClient);
+    }
+
+    public boolean isStreamingScan() {
+        return this.streamingScan;
+    }
+
+    public boolean isShapeResults() {
+        return this.shapeResults;
     }
 
     private void checkClosed() throws SQLException {
@@ -0,0 +1,535 @@
+package com.itmuch.redis.jdbc;
+
+import com.itmuch.redis.jdbc.conf.Op;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * A statement whose template is parsed once.
+ * <p>
+ * Every bare {@code ?} in the template is a slot; setters encode the value straight into the param array,
+ * so executing skips tokenizing and string building. Values are binary-safe, spaces and quotes need no escaping:
+ * <pre>
+ * PreparedStatement ps = connection.prepareStatement("HSET ? name ?");
+ * ps.setString(1, "user:1");
+ * ps.setString(2, "Tom Smith");
+ * ps.executeUpdate();
+ * </pre>
+ */
+public class RedisPreparedStatement extends RedisStatement implements PreparedStatement {
+    private final static Logger LOGGER = new Logger(RedisPreparedStatement.class);
+
+    private static final byte[] TRUE = {'1'};
+    private static final byte[] FALSE = {'0'};
+
+    private final Op op;
+    /**
+     * params to send, literal params of the template are encoded up front
+     */
+    private final byte[][] params;
+    /**
+     * param position of each placeholder, in order of appearance
+     */
+    private final int[] slots;
+    /**
+     * bound params of each {@link #addBatch()}
+     */
+    private final List<byte[][]> batchParams = new ArrayList<>();
+
+    public RedisPreparedStatement(RedisConnection connection, RedisClient redisClient, String sql) throws SQLException {
+        super(connection, redisClient);
+        try {
+            this.op = SqlParser.parse(sql, null, true);
+        } catch (RuntimeException e) {
+            LOGGER.log("Cannot parse sql %s", sql);
+            throw new SQLException("Cannot parse sql: " + sql, e);
+        }
+
+        String[] templateParams = this.op.getParams();
+        this.params = new byte[templateParams.length][];
+
+        int slotCount = 0;
+        int[] slots = new int[templateParams.length];
+        for (int i = 0; i < templateParams.length; i++) {
+            if (templateParams[i] == null) {
+                slots[slotCount++] = i;
+            } else {
+                this.params[i] = this.op.encodeParam(i);
+            }
+        }
+        this.slots = Arrays.copyOf(slots, slotCount);
+    }
+
+    @Override
+    public ResultSet executeQuery() throws SQLException {
+        this.checkClosed();
+
+        byte[][] params = this.boundParams();
+        Object reply = this.run(() -> this.redisClient.sendCommand(this.op, params));
+        return this.toResultSet(reply);
+    }
+
+    @Override
+    public int executeUpdate() throws SQLException {
+        this.checkClosed();
+
+        byte[][] params = this.boundParams();
+        Object reply = this.run(() -> this.redisClient.sendCommand(this.op, params));
+        return Utils.flatten(reply).size();
+    }
+
+    @Override
+    public boolean execute() throws SQLException {
+        this.checkClosed();
+
+        byte[][] params = this.boundParams();
+        Object reply = this.run(() -> this.redisClient.sendCommand(this.op, params));
+        this.resultSet = this.toResultSet(reply);
+        return true;
+    }
+
+    private ResultSet toResultSet(Object reply) {
+        return this.connection.isShapeResults()
+                ? RedisResultSet.ofReply(this.op, reply, this)
+                : RedisResultSet.ofReply(reply, this);
+    }
+
+    private byte[][] boundParams() throws SQLException {
+        for (int i = 0; i < slots.length; i++) {
+            if (params[slots[i]] == null) {
+                LOGGER.log("No value specified for parameter %s", i + 1);
+                throw new SQLException("No value specified for parameter " + (i + 1));
+            }
+        }
+        return this.params;
+    }
+
+    private void bind(int parameterIndex, byte[] value) throws SQLException {
+        this.checkClosed();
+        if (parameterIndex < 1 || parameterIndex > slots.length) {
+            LOGGER.log("Parameter index out of range. parameterIndex = %s", parameterIndex);
+            throw new SQLException("Parameter index out of range: " + parameterIndex);
+        }
+        params[slots[parameterIndex - 1]] = value;
+    }
+
+    private static byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Same format as Jedis uses for doubles.
+     */
+    private static byte[] encode(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return encode("+inf");
+        }
+        if (value == Double.NEGATIVE_INFINITY) {
+            return encode("-inf");
+        }
+        return encode(String.valueOf(value));
+    }
+
+    private static byte[] readFully(InputStream x) throws SQLException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = x.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private static byte[] readFully(Reader reader) throws SQLException {
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, n);
+            }
+            return encode(sb.toString());
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        LOGGER.log("Redis does not support null parameters");
+        throw new SQLException("Redis does not support null parameters");
+    }
+
+    @Override
+    public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        this.bind(parameterIndex, x ? TRUE : FALSE);
+    }
+
+    @Override
+    public void setByte(int parameterIndex, byte x) throws SQLException {
+        this.setLong(parameterIndex, x);
+    }
+
+    @Override
+    public void setShort(int parameterIndex, short x) throws SQLException {
+        this.setLong(parameterIndex, x);
+    }
+
+    @Override
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        this.setLong(parameterIndex, x);
+    }
+
+    @Override
+    public void setLong(int parameterIndex, long x) throws SQLException {
+        this.bind(parameterIndex, encode(Long.toString(x)));
+    }
+
+    @Override
+    public void setFloat(int parameterIndex, float x) throws SQLException {
+        this.bind(parameterIndex, Float.isInfinite(x) ? encode((double) x) : encode(Float.toString(x)));
+    }
+
+    @Override
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        this.bind(parameterIndex, encode(x));
+    }
+
+    @Override
+    public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        if (x == null) {
+            this.setNull(parameterIndex, Types.DECIMAL);
+            return;
+        }
+        this.bind(parameterIndex, encode(x.toPlainString()));
+    }
+
+    @Override
+    public void setString(int parameterIndex, String x) throws SQLException {
+        if (x == null) {
+            this.setNull(parameterIndex, Types.VARCHAR);
+            return;
+        }
+        this.bind(parameterIndex, encode(x));
+    }
+
+    /**
+     * The array is sent as is, without copying it.
+     */
+    @Override
+    public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        if (x == null) {
+            this.setNull(parameterIndex, Types.BINARY);
+            return;
+        }
+        this.bind(parameterIndex, x);
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x) throws SQLException {
+        this.setString(parameterIndex, x == null ? null : x.toString());
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x) throws SQLException {
+        this.setString(parameterIndex, x == null ? null : x.toString());
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+        this.setString(parameterIndex, x == null ? null : x.toString());
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        this.setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        this.setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        this.setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void clearParameters() throws SQLException {
+        this.checkClosed();
+        for (int slot : slots) {
+            params[slot] = null;
+        }
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        this.setObject(parameterIndex, x);
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x) throws SQLException {
+        if (x == null) {
+            this.setNull(parameterIndex, Types.NULL);
+        } else if (x instanceof byte[]) {
+            this.setBytes(parameterIndex, (byte[]) x);
+        } else if (x instanceof String) {
+            this.setString(parameterIndex, (String) x);
+        } else if (x instanceof Double) {
+            this.setDouble(parameterIndex, (Double) x);
+        } else if (x instanceof Float) {
+            this.setFloat(parameterIndex, (Float) x);
+        } else if (x instanceof Long || x instanceof Integer || x instanceof Short || x instanceof Byte) {
+            this.setLong(parameterIndex, ((Number) x).longValue());
+        } else if (x instanceof BigDecimal) {
+            this.setBigDecimal(parameterIndex, (BigDecimal) x);
+        } else if (x instanceof Boolean) {
+            this.setBoolean(parameterIndex, (Boolean) x);
+        } else {
+            this.setString(parameterIndex, x.toString());
+        }
+    }
+
+    @Override
+    public void addBatch() throws SQLException {
+        this.checkClosed();
+        this.batchParams.add(this.boundParams().clone());
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        this.checkClosed();
+        this.batchParams.clear();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        this.checkClosed();
+        LOGGER.log("executeBatch() of %s param sets", this.batchParams.size());
+        if (this.batchParams.isEmpty()) {
+            return new int[0];
+        }
+        try {
+            return this.run(() -> this.redisClient.executeBatch(this.op, this.batchParams));
+        } finally {
+            this.batchParams.clear();
+        }
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+        this.setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setRef(int parameterIndex, Ref x) throws SQLException {
+        LOGGER.log("setRef not implemented");
+        throw new SQLFeatureNotSupportedException("setRef not implemented");
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, Blob x) throws SQLException {
+        if (x == null) {
+            this.setNull(parameterIndex, Types.BLOB);
+            return;
+        }
+        this.setBinaryStream(parameterIndex, x.getBinaryStream());
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Clob x) throws SQLException {
+        if (x == null) {
+            this.setNull(parameterIndex, Types.CLOB);
+            return;
+        }
+        this.setCharacterStream(parameterIndex, x.getCharacterStream());
+    }
+
+    @Override
+    public void setArray(int parameterIndex, Array x) throws SQLException {
+        LOGGER.log("setArray not implemented");
+        throw new SQLFeatureNotSupportedException("setArray not implemented");
+    }
+
+    @Override
+    public ResultSetMetaData getMetaData() throws SQLException {
+        this.checkClosed();
+        return new RedisResultSetMetaData();
+    }
+
+    @Override
+    public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+        this.setDate(parameterIndex, x);
+    }
+
+    @Override
+    public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+        this.setTime(parameterIndex, x);
+    }
+
+    @Override
+    public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+        this.setTimestamp(parameterIndex, x);
+    }
+
+    @Override
+    public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        this.setNull(parameterIndex, sqlType);
+    }
+
+    @Override
+    public void setURL(int parameterIndex, URL x) throws SQLException {
+        this.setString(parameterIndex, x == null ? null : x.toString());
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() throws SQLException {
+        LOGGER.log("getParameterMetaData not implemented");
+        throw new SQLFeatureNotSupportedException("getParameterMetaData not implemented");
+    }
+
+    @Override
+    public void setRowId(int parameterIndex, RowId x) throws SQLException {
+        LOGGER.log("setRowId not implemented");
+        throw new SQLFeatureNotSupportedException("setRowId not implemented");
+    }
+
+    @Override
+    public void setNString(int parameterIndex, String value) throws SQLException {
+        this.setString(parameterIndex, value);
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException {
+        this.setCharacterStream(parameterIndex, value);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, NClob value) throws SQLException {
+        this.setClob(parameterIndex, value);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        this.setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+        this.setBinaryStream(parameterIndex, inputStream);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        this.setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+        LOGGER.log("setSQLXML not implemented");
+        throw new SQLFeatureNotSupportedException("setSQLXML not implemented");
+    }
+
+    @Override
+    public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+        this.setObject(parameterIndex, x);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        this.setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        this.setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+        this.setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+        this.setBinaryStream(parameterIndex, x);
+    }
+
+    @Override
+    public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+        if (x == null) {
+            this.setNull(parameterIndex, Types.BINARY);
+            return;
+        }
+        this.bind(parameterIndex, readFully(x));
+    }
+
+    @Override
+    public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+        if (reader == null) {
+            this.setNull(parameterIndex, Types.VARCHAR);
+            return;
+        }
+        this.bind(parameterIndex, readFully(reader));
+    }
+
+    @Override
+    public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+        this.setCharacterStream(parameterIndex, value);
+    }
+
+    @Override
+    public void setClob(int parameterIndex, Reader reader) throws SQLException {
+        this.setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+        this.setBinaryStream(parameterIndex, inputStream);
+    }
+
+    @Override
+    public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+        this.setCharacterStream(parameterIndex, reader);
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        LOGGER.log("executeQuery(String) cannot be called on a PreparedStatement");
+        throw new SQLException("executeQuery(String) cannot be called on a PreparedStatement");
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        LOGGER.log("executeUpdate(String) cannot be called on a PreparedStatement");
+        throw new SQLException("executeUpdate(String) cannot be called on a PreparedStatement");
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        LOGGER.log("execute(String) cannot be called on a PreparedStatement");
+        throw new SQLException("execute(String) cannot be called on a PreparedStatement");
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        LOGGER.log("addBatch(String) cannot be called on a PreparedStatement");
+        throw new SQLException("addBatch(String) cannot be called on a PreparedStatement");
+    }
+}
@@ -1,28 +1,87 @@
 package com.itmuch.redis.jdbc;
 
+import com.itmuch.redis.jdbc.conf.Op;
+
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Map;
 
+/**
+ * Rows are the values of the raw reply, laid out by a {@link ResultShape}. A value is decoded only when a getter
+ * reads it, so iterating over the first rows of a big reply costs nothing for the others.
+ * <p>
+ * Columns are 1-based; index 0 still reads the first column, as it always did.
+ */
 public class RedisResultSet implements ResultSet {
     private final static Logger LOGGER = new Logger(RedisResultSet.class);
 
-    private final String[] result;
+    /**
+     * SQLState of a value that does not fit the requested type
+     */
+    private static final String NUMERIC_OUT_OF_RANGE = "22003";
+    /**
+     * SQLState of a text that is not a number
+     */
+    private static final String INVALID_CHARACTER_VALUE = "22018";
+
+    /**
+     * raw values row after row: {@code byte[]}, {@code Long}, {@code String} or null
+     */
+    private List<?> result;
+    private final ResultShape shape;
+    private final int columnCount;
     private final Statement owningStatement;
 
     private int position = -1;
+    /**
+     * rows of the pages consumed before the current one
+     */
+    private int rowsBefore = 0;
     private boolean isClosed = false;
+    private boolean wasNull = false;
 
     public RedisResultSet(final String[] result, final Statement owningStatement) {
+        this(Arrays.asList(result), owningStatement);
+    }
+
+    public RedisResultSet(final List<?> result, final Statement owningStatement) {
+        this(result, ResultShape.SINGLE, owningStatement);
+    }
+
+    /**
+     * @param result the values laid out by the shape
+     */
+    public RedisResultSet(final List<?> result, final ResultShape shape, final Statement owningStatement) {
         this.result = result;
+        this.shape = shape;
+        this.columnCount = shape.getColumnCount();
         this.owningStatement = owningStatement;
     }
 
+    /**
+     * @param reply a raw reply, as returned by {@link RedisClient#sendCommand(String)}, in one column
+     */
+    public static RedisResultSet ofReply(Object reply, Statement owningStatement) {
+        return new RedisResultSet(Utils.flatten(reply), owningStatement);
+    }
+
+    /**
+     * @param reply a raw reply of the op, in the columns of {@link ResultShape#of(com.itmuch.redis.jdbc.conf.Op, Object)}
+     */
+    public static RedisResultSet ofReply(Op op, Object reply, Statement owningStatement) {
+        ResultShape shape = ResultShape.of(op, reply);
+        return new RedisResultSet(shape.values(reply), shape, owningStatement);
+    }
+
     private void checkClosed() throws SQLException {
         if (isClosed()) {
             LOGGER.log("ResultSet is closed.");
@@ -34,12 +93,49 @@ public class RedisResultSet implements ResultSet {
     public boolean next() throws SQLException {
         this.checkClosed();
 
-        if (position < result.length - 1) {
+        if (position < this.rowCount() - 1) {
             position++;
             return true;
-        } else {
-            return false;
         }
+
+        List<?> page;
+        while ((page = this.fetchNext()) != null) {
+            rowsBefore += this.rowCount();
+            result = page;
+            position = -1;
+            if (!page.isEmpty()) {
+                position = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hook for result sets streaming their rows page by page, called once the current page is consumed.
+     *
+     * @return the raw values of the next page laid out by the shape, possibly empty, or null when there are no more rows
+     */
+    protected List<?> fetchNext() throws SQLException {
+        return null;
+    }
+
+    private int rowCount() {
+        return result.size() / columnCount;
+    }
+
+    /**
+     * The raw value of a column of the current row.
+     */
+    private Object value(int columnIndex) throws SQLException {
+        if (columnIndex < 0 || columnIndex > columnCount) {
+            LOGGER.log("Column index out of range. columnIndex = %s", columnIndex);
+            throw new SQLException("Column index out of range: " + columnIndex);
+        }
+        int column = columnIndex == 0 ? 0 : columnIndex - 1;
+        Object value = result.get(position * columnCount + column);
+        this.wasNull = value == null;
+        return value;
     }
 
     @Override
@@ -51,21 +147,21 @@ public class RedisResultSet implements ResultSet {
     @Override
     public boolean wasNull() throws SQLException {
         this.checkClosed();
-        return result[position] == null;
+        return this.wasNull;
     }
 
     @Override
     public String getString(int columnIndex) throws SQLException {
         this.checkClosed();
         LOGGER.log("getString(%s)", columnIndex);
-        return result[position];
+        return Utils.decode(this.value(columnIndex));
     }
 
     @Override
     public boolean getBoolean(int columnIndex) throws SQLException {
         this.checkClosed();
 
-        String r = this.getString(0);
+        String r = this.getString(columnIndex);
 
         if ("0".equals(r) || "false".equals(r)) {
             return false;
@@ -81,7 +177,7 @@ public class RedisResultSet implements ResultSet {
     public byte getByte(int columnIndex) throws SQLException {
         this.checkClosed();
 
-        String string = this.getString(0);
+        String string = this.getString(columnIndex);
 
         if (string == null) {
             return 0;
@@ -93,77 +189,127 @@ public class RedisResultSet implements ResultSet {
     public short getShort(int columnIndex) throws SQLException {
         this.checkClosed();
 
-        String string = this.getString(0);
+        Object value = this.value(columnIndex);
+        if (value instanceof Long) {
+            long longValue = (Long) value;
+            if (longValue != (short) longValue) {
+                throw new SQLException("Value out of short range: " + longValue, NUMERIC_OUT_OF_RANGE);
+            }
+            return (short) longValue;
+        }
+        String string = Utils.decode(value);
         if (string == null) {
             return 0;
         }
 
-        return Short.parseShort(string);
+        return (short) parseInteger(string, Short.MIN_VALUE, Short.MAX_VALUE, "short");
     }
 
     @Override
     public int getInt(int columnIndex) throws SQLException {
         this.checkClosed();
 
-        String string = this.getString(0);
+        Object value = this.value(columnIndex);
+        if (value instanceof Long) {
+            try {
+                return Math.toIntExact((Long) value);
+            } catch (ArithmeticException e) {
+                throw new SQLException("Value out of int range: " + value, NUMERIC_OUT_OF_RANGE, e);
+            }
+        }
+        String string = Utils.decode(value);
         if (string == null) {
             return 0;
         }
 
-        return Integer.parseInt(string);
+        return (int) parseInteger(string, Integer.MIN_VALUE, Integer.MAX_VALUE, "int");
     }
 
     @Override
     public long getLong(int columnIndex) throws SQLException {
         this.checkClosed();
 
-        String string = this.getString(0);
+        Object value = this.value(columnIndex);
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        String string = Utils.decode(value);
         if (string == null) {
             return 0;
         }
 
-        return Long.parseLong(string);
+        return parseInteger(string, Long.MIN_VALUE, Long.MAX_VALUE, "long");
+    }
+
+    /**
+     * @throws SQLException 22003 if the text is an integer out of {@code [min, max]}, 22018 if it is no integer
+     */
+    private static long parseInteger(String string, long min, long max, String type) throws SQLException {
+        long value;
+        try {
+            value = Long.parseLong(string);
+        } catch (NumberFormatException e) {
+            if (string.matches("[-+]?[0-9]+")) {
+                throw new SQLException("Value out of " + type + " range: " + string, NUMERIC_OUT_OF_RANGE, e);
+            }
+            throw new SQLException("Value is not an integer: " + string, INVALID_CHARACTER_VALUE, e);
+        }
+        if (value < min || value > max) {
+            throw new SQLException("Value out of " + type + " range: " + string, NUMERIC_OUT_OF_RANGE);
+        }
+        return value;
     }
 
     @Override
     public float getFloat(int columnIndex) throws SQLException {
         this.checkClosed();
 
-        String string = this.getString(0);
+        Object value = this.value(columnIndex);
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        String string = Utils.decode(value);
         if (string == null) {
             return 0;
         }
 
-        return Float.parseFloat(string);
+        return (float) Utils.parseDouble(string);
     }
 
     @Override
     public double getDouble(int columnIndex) throws SQLException {
         this.checkClosed();
 
-        String string = this.getString(0);
+        Object value = this.value(columnIndex);
+        if (value instanceof Long) {
+            return (Long) value;
+        }
+        String string = Utils.decode(value);
         if (string == null) {
             return 0;
         }
 
-        return Double.parseDouble(string);
+        return Utils.parseDouble(string);
     }
 
     @Override
     public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
-        return this.getBigDecimal(0);
+        return this.getBigDecimal(columnIndex);
     }
 
+    /**
+     * Returns the bytes sent by Redis, without decoding or copying them: do not modify the array.
+     */
     @Override
     public byte[] getBytes(int columnIndex) throws SQLException {
         this.checkClosed();
 
-        String string = this.getString(0);
-        if (string == null) {
-            return null;
+        Object value = this.value(columnIndex);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
         }
 
-        return string.getBytes();
+        return Utils.decode(value).getBytes(StandardCharsets.UTF_8);
     }
 
     @Override
@@ -198,88 +344,92 @@ public class RedisResultSet implements ResultSet {
 
     @Override
     public InputStream getBinaryStream(int columnIndex) throws SQLException {
-        LOGGER.log("getAsciiStream not implemented");
-        throw new SQLFeatureNotSupportedException("getAsciiStream not implemented");
+        byte[] bytes = this.getBytes(columnIndex);
+        if (bytes == null) {
+            return null;
+        }
+        // reads the reply in place
+        return new ByteArrayInputStream(bytes);
     }
 
     @Override
     public String getString(String columnLabel) throws SQLException {
-        return this.getString(0);
+        return this.getString(this.findColumn(columnLabel));
     }
 
     @Override
     public boolean getBoolean(String columnLabel) throws SQLException {
-        return this.getBoolean(0);
+        return this.getBoolean(this.findColumn(columnLabel));
     }
 
     @Override
     public byte getByte(String columnLabel) throws SQLException {
-        return this.getByte(0);
+        return this.getByte(this.findColumn(columnLabel));
     }
 
     @Override
     public short getShort(String columnLabel) throws SQLException {
-        return this.getShort(0);
+        return this.getShort(this.findColumn(columnLabel));
     }
 
     @Override
     public int getInt(String columnLabel) throws SQLException {
-        return this.getInt(0);
+        return this.getInt(this.findColumn(columnLabel));
     }
 
     @Override
     public long getLong(String columnLabel) throws SQLException {
-        return this.getLong(0);
+        return this.getLong(this.findColumn(columnLabel));
     }
 
     @Override
     public float getFloat(String columnLabel) throws SQLException {
-        return this.getFloat(0);
+        return this.getFloat(this.findColumn(columnLabel));
     }
 
     @Override
     public double getDouble(String columnLabel) throws SQLException {
-        return this.getDouble(0);
+        return this.getDouble(this.findColumn(columnLabel));
     }
 
     @Override
     public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException {
-        return this.getBigDecimal(0);
+        return this.getBigDecimal(this.findColumn(columnLabel));
     }
 
     @Override
     public byte[] getBytes(String columnLabel) throws SQLException {
-        return this.getBytes(0);
+        return this.getBytes(this.findColumn(columnLabel));
     }
 
     @Override
     public Date getDate(String columnLabel) throws SQLException {
-        return this.getDate(0);
+        return this.getDate(this.findColumn(columnLabel));
     }
 
     @Override
     public Time getTime(String columnLabel) throws SQLException {
-        return this.getTime(0);
+        return this.getTime(this.findColumn(columnLabel));
     }
 
     @Override
     public Timestamp getTimestamp(String columnLabel) throws SQLException {
-        return this.getTimestamp(0);
+        return this.getTimestamp(this.findColumn(columnLabel));
     }
 
     @Override
     public InputStream getAsciiStream(String columnLabel) throws SQLException {
-        return this.getAsciiStream(0);
+        return this.getAsciiStream(this.findColumn(columnLabel));
     }
 
     @Override
     public InputStream getUnicodeStream(String columnLabel) throws SQLException {
-        return this.getUnicodeStream(0);
+        return this.getUnicodeStream(this.findColumn(columnLabel));
     }
 
     @Override
     public InputStream getBinaryStream(String columnLabel) throws SQLException {
-        return this.getBinaryStream(0);
+        return this.getBinaryStream(this.findColumn(columnLabel));
     }
 
     @Override
@@ -299,23 +449,43 @@ public class RedisResultSet implements ResultSet {
 
     @Override
     public ResultSetMetaData getMetaData() throws SQLException {
-        return new RedisResultSetMetaData();
+        return new RedisResultSetMetaData(this.shape);
     }
 
+    /**
+     * {@code Double} for a DOUBLE column, {@code Long} for integer replies, otherwise the decoded {@code String}.
+     */
     @Override
     public Object getObject(int columnIndex) throws SQLException {
-        LOGGER.log("getObject not implemented");
-        throw new SQLFeatureNotSupportedException("getObject not implemented");
+        this.checkClosed();
+
+        Object value = this.value(columnIndex);
+        if (value == null || value instanceof Long) {
+            return value;
+        }
+        if (shape.getColumnType(columnIndex == 0 ? 1 : columnIndex) == Types.DOUBLE) {
+            return Utils.parseDouble(Utils.decode(value));
+        }
+        return Utils.decode(value);
     }
 
     @Override
     public Object getObject(String columnLabel) throws SQLException {
-        return this.getObject(0);
+        return this.getObject(this.findColumn(columnLabel));
     }
 
     @Override
     public int findColumn(String columnLabel) throws SQLException {
-        return 0;
+        int column = shape.findColumn(columnLabel);
+        if (column > 0) {
+            return column;
+        }
+        if (columnCount == 1) {
+            // any label reads the only column, as it always did
+            return 1;
+        }
+        LOGGER.log("Column not found. columnLabel = %s", columnLabel);
+        throw new SQLException("Column not found: " + columnLabel);
     }
 
     @Override
@@ -334,7 +504,7 @@ public class RedisResultSet implements ResultSet {
     public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
         this.checkClosed();
 
-        String string = this.getString(0);
+        String string = this.getString(columnIndex);
         if (string == null) {
             return null;
         }
@@ -344,7 +514,7 @@ public class RedisResultSet implements ResultSet {
 
     @Override
     public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
-        return this.getBigDecimal(0);
+        return this.getBigDecimal(this.findColumn(columnLabel));
     }
 
     @Override
@@ -356,7 +526,7 @@ public class RedisResultSet implements ResultSet {
     @Override
     public boolean isAfterLast() throws SQLException {
         this.checkClosed();
-        return position >= result.length;
+        return position >= this.rowCount();
     }
 
     @Override
@@ -368,7 +538,7 @@ public class RedisResultSet implements ResultSet {
     @Override
     public boolean isLast() throws SQLException {
         this.checkClosed();
-        return position == result.length - 1;
+        return position == this.rowCount() - 1;
     }
 
     @Override
@@ -380,27 +550,27 @@ public class RedisResultSet implements ResultSet {
     @Override
     public void afterLast() throws SQLException {
         this.checkClosed();
-        position = result.length;
+        position = this.rowCount();
     }
 
     @Override
     public boolean first() throws SQLException {
         this.checkClosed();
         position = 0;
-        return result.length > 0;
+        return !result.isEmpty();
     }
 
     @Override
     public boolean last() throws SQLException {
         this.checkClosed();
-        position = result.length - 1;
-        return result.length > 0;
+        position = this.rowCount() - 1;
+        return !result.isEmpty();
     }
 
     @Override
     public int getRow() throws SQLException {
         this.checkClosed();
-        return this.position + 1;
+        return this.rowsBefore + this.position + 1;
     }
 
     @Override
@@ -442,7 +612,7 @@ public class RedisResultSet implements ResultSet {
     @Override
     public int getFetchSize() throws SQLException {
         this.checkClosed();
-        return result.length;
+        return this.rowCount();
     }
 
     @Override
@@ -864,7 +1034,7 @@ public class RedisResultSet implements ResultSet {
 
     @Override
     public URL getURL(String columnLabel) throws SQLException {
-        return this.getURL(0);
+        return this.getURL(this.findColumn(columnLabel));
     }
 
     @Override
@@ -1014,12 +1184,12 @@ public class RedisResultSet implements ResultSet {
     @Override
     public String getNString(int columnIndex) throws SQLException {
         this.checkClosed();
-        return result[position];
+        return Utils.decode(this.value(columnIndex));
     }
 
     @Override
     public String getNString(String columnLabel) throws SQLException {
-        return this.getNString(0);
+        return this.getNString(this.findColumn(columnLabel));
     }
 
     @Override
@@ -9,6 +9,16 @@ public class RedisResultSetMetaData implements ResultSetMetaData {
 
     public static final int MAX_SIZE = 1024;
 
+    private final ResultShape shape;
+
+    public RedisResultSetMetaData() {
+        this(ResultShape.SINGLE);
+    }
+
+    public RedisResultSetMetaData(ResultShape shape) {
+        this.shape = shape;
+    }
+
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
         try {
@@ -26,7 +36,7 @@ public class RedisResultSetMetaData implements ResultSetMetaData {
 
     @Override
     public int getColumnCount() throws SQLException {
-        return 1;
+        return shape.getColumnCount();
     }
 
     @Override
@@ -56,7 +66,7 @@ public class RedisResultSetMetaData implements ResultSetMetaData {
 
     @Override
     public boolean isSigned(int column) throws SQLException {
-        return false;
+        return this.getColumnType(column) != Types.NVARCHAR;
     }
 
     @Override
@@ -66,12 +76,12 @@ public class RedisResultSetMetaData implements ResultSetMetaData {
 
     @Override
     public String getColumnLabel(int column) throws SQLException {
-        return "RESULTS";
+        return this.getColumnName(column);
     }
 
     @Override
     public String getColumnName(int column) throws SQLException {
-        return "RESULTS";
+        return shape.getColumnName(this.checkColumn(column));
     }
 
     @Override
@@ -102,12 +112,19 @@ public class RedisResultSetMetaData implements ResultSetMetaData {
 
     @Override
     public int getColumnType(int column) throws SQLException {
-        return Types.NVARCHAR;
+        return shape.getColumnType(this.checkColumn(column));
     }
 
     @Override
     public String getColumnTypeName(int column) throws SQLException {
-        return "String";
+        switch (this.getColumnType(column)) {
+            case Types.BIGINT:
+                return "Long";
+            case Types.DOUBLE:
+                return "Double";
+            default:
+                return "String";
+        }
     }
 
     @Override
@@ -127,7 +144,18 @@ public class RedisResultSetMetaData implements ResultSetMetaData {
 
     @Override
     public String getColumnClassName(int column) throws SQLException {
-        return "java.lang.String";
+        return "java.lang." + this.getColumnTypeName(column);
+    }
+
+    /**
+     * Column 0 stands for the first column, like in {@link RedisResultSet}.
+     */
+    private int checkColumn(int column) throws SQLException {
+        if (column < 0 || column > shape.getColumnCount()) {
+            LOGGER.log("Column index out of range. column = %s", column);
+            throw new SQLException("Column index out of range: " + column);
+        }
+        return column == 0 ? 1 : column;
     }
 
 }
@@ -0,0 +1,280 @@
+package com.itmuch.redis.jdbc;
+
+import com.itmuch.redis.jdbc.conf.Op;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams the keys of a {@code KEYS}, {@code SCAN}, {@code HSCAN}, {@code SSCAN} or {@code ZSCAN} query
+ * by driving the SCAN cursor from {@link #next()}: one page of about {@code fetchSize} elements is held at a time,
+ * so memory stays flat whatever the size of the keyspace.
+ * <p>
+ * {@code KEYS pattern} becomes {@code SCAN 0 MATCH pattern COUNT fetchSize}; an explicit scan keeps its own
+ * cursor, MATCH, TYPE and COUNT, and gets {@code COUNT fetchSize} if it has none.
+ * The rows are the elements only, the cursor is consumed here. Like SCAN itself, an element may show up twice
+ * if the keyspace changes while iterating.
+ * <p>
+ * With result shaping, HSCAN rows are field/value, ZSCAN rows member/score, and {@code SCAN ... TYPE t} rows
+ * key/type/ttl, the TTLs of a page being fetched in one pipeline.
+ */
+public class RedisScanResultSet extends RedisResultSet {
+    private final static Logger LOGGER = new Logger(RedisScanResultSet.class);
+
+    /**
+     * COUNT used when the statement has no fetch size
+     */
+    public static final int DEFAULT_COUNT = 1000;
+
+    private static final String START_CURSOR = "0";
+
+    private final RedisClient redisClient;
+    private final Op scanOp;
+    private final byte[][] params;
+    private final int cursorIndex;
+    private final int count;
+    private final ResultShape shape;
+    /**
+     * value of the type column, for {@link ResultShape#KEY_TYPE_TTL}
+     */
+    private final byte[] type;
+
+    private boolean finished = false;
+
+    /**
+     * A result set scanning as the template would, which must not be used afterwards.
+     * A subclass gets the scan prepared by {@link #of(Op, RedisClient, int, boolean, Statement)} and fetches the
+     * elements its own way, see {@link #scanPage()}.
+     */
+    protected RedisScanResultSet(RedisScanResultSet template) throws SQLException {
+        this(template.redisClient, template.scanOp, template.params, template.cursorIndex, template.count,
+                template.shape, template.getStatement());
+    }
+
+    private RedisScanResultSet(RedisClient redisClient, Op scanOp, byte[][] params, int cursorIndex, int count,
+                               ResultShape shape, Statement owningStatement) {
+        super(Collections.emptyList(), shape, owningStatement);
+        this.redisClient = redisClient;
+        this.scanOp = scanOp;
+        this.params = params;
+        this.cursorIndex = cursorIndex;
+        this.count = count;
+        this.shape = shape;
+
+        int typeIndex = ResultShape.indexOfScanOption(scanOp.getParams(), 1, "TYPE");
+        this.type = shape == ResultShape.KEY_TYPE_TTL
+                ? scanOp.getParams()[typeIndex + 1].toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8)
+                : null;
+    }
+
+    /**
+     * @param fetchSize    the fetch size of the statement, 0 for {@link #DEFAULT_COUNT}
+     * @param shapeResults whether the elements get the columns of {@link ResultShape#ofScan(String, String[])}
+     * @return a streaming result set, or null if the op is not a well-formed KEYS or scan command
+     */
+    public static RedisScanResultSet of(Op op, RedisClient redisClient, int fetchSize, boolean shapeResults,
+                                        Statement owningStatement) {
+        String command = op.getCommand();
+        String[] params = op.getParams();
+        int count = fetchSize > 0 ? fetchSize : DEFAULT_COUNT;
+
+        String scanCommand;
+        String[] scanParams;
+        int cursorIndex;
+        if ("KEYS".equalsIgnoreCase(command)) {
+            if (params.length != 1) {
+                return null;
+            }
+            scanCommand = "SCAN";
+            scanParams = new String[]{START_CURSOR, "MATCH", params[0], "COUNT", String.valueOf(count)};
+            cursorIndex = 0;
+        } else if ("SCAN".equalsIgnoreCase(command)) {
+            if (params.length < 1) {
+                return null;
+            }
+            if (endsWithBareOption(params, 1)) {
+                return null;
+            }
+            scanCommand = command;
+            scanParams = withCount(params, 1, count);
+            cursorIndex = 0;
+        } else if ("HSCAN".equalsIgnoreCase(command)
+                || "SSCAN".equalsIgnoreCase(command)
+                || "ZSCAN".equalsIgnoreCase(command)) {
+            if (params.length < 2) {
+                return null;
+            }
+            if (endsWithBareOption(params, 2)) {
+                return null;
+            }
+            scanCommand = command;
+            scanParams = withCount(params, 2, count);
+            cursorIndex = 1;
+        } else {
+            return null;
+        }
+
+        byte[][] encoded = new byte[scanParams.length][];
+        for (int i = 0; i < scanParams.length; i++) {
+            encoded[i] = scanParams[i].getBytes(StandardCharsets.UTF_8);
+        }
+        if (op.getBinaryParams() != null) {
+            // the pattern of KEYS becomes the MATCH of SCAN; the params of the scan commands keep their place
+            if ("KEYS".equalsIgnoreCase(command)) {
+                encoded[2] = op.encodeParam(0);
+            } else {
+                for (int i = 0; i < params.length; i++) {
+                    encoded[i] = op.encodeParam(i);
+                }
+            }
+        }
+        ResultShape shape = shapeResults ? ResultShape.ofScan(scanCommand, scanParams) : ResultShape.SINGLE;
+        Op scanOp = new Op(op.getOriginSql(), op.getHints(), scanCommand, scanParams);
+        return new RedisScanResultSet(redisClient, scanOp, encoded, cursorIndex, count, shape, owningStatement);
+    }
+
+    /**
+     * Whether the last option lacks its value, e.g. {@code SCAN 0 TYPE}: appending a COUNT would give it one,
+     * the command is left to fail as is instead.
+     */
+    private static boolean endsWithBareOption(String[] params, int optionsFrom) {
+        int i = optionsFrom;
+        while (i < params.length) {
+            if (ResultShape.isScanOptionWithValue(params[i])) {
+                if (i == params.length - 1) {
+                    return true;
+                }
+                i += 2;
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Append {@code COUNT count} unless the options after {@code optionsFrom} already have one.
+     */
+    private static String[] withCount(String[] params, int optionsFrom, int count) {
+        if (ResultShape.indexOfScanOption(params, optionsFrom, "COUNT") >= 0) {
+            return params;
+        }
+        String[] withCount = Arrays.copyOf(params, params.length + 2);
+        withCount[params.length] = "COUNT";
+        withCount[params.length + 1] = String.valueOf(count);
+        return withCount;
+    }
+
+    @Override
+    protected List<?> fetchNext() throws SQLException {
+        if (this.finished) {
+            return null;
+        }
+        Statement statement = this.getStatement();
+        // each page is bounded by the query timeout and can be cancelled
+        return statement instanceof RedisStatement ? ((RedisStatement) statement).run(this::fetchPage) : this.fetchPage();
+    }
+
+    private List<?> fetchPage() throws SQLException {
+        List<?> elements = this.scanPage();
+        return this.shape == ResultShape.KEY_TYPE_TTL ? this.withTypeAndTtl(elements) : elements;
+    }
+
+    /**
+     * The elements of the next page, calling {@link #finish()} once it is the last one.
+     */
+    protected List<?> scanPage() throws SQLException {
+        // [cursor, [element...]]
+        List<?> reply = (List<?>) this.redisClient.sendCommand(this.scanOp, this.params);
+        byte[] cursor = (byte[]) reply.get(0);
+        List<?> elements = (List<?>) reply.get(1);
+        LOGGER.log("scan page of %s elements", elements.size());
+
+        this.params[this.cursorIndex] = cursor;
+        if (cursor.length == 1 && cursor[0] == '0') {
+            this.finish();
+        }
+        return elements;
+    }
+
+    /**
+     * No page is fetched after the current one.
+     */
+    protected void finish() {
+        this.finished = true;
+    }
+
+    /**
+     * @return the encoded params of the scan, the cursor being at {@link #getCursorIndex()}
+     */
+    protected byte[][] getScanParams() {
+        return this.params;
+    }
+
+    protected int getCursorIndex() {
+        return this.cursorIndex;
+    }
+
+    /**
+     * {@code [key, ...]} to {@code [key, type, ttl, ...]}
+     */
+    private List<Object> withTypeAndTtl(List<?> keys) throws SQLException {
+        List<byte[][]> paramsList = new ArrayList<>(keys.size());
+        for (Object key : keys) {
+            paramsList.add(new byte[][]{(byte[]) key});
+        }
+        // no hints: each TTL is routed by its own key
+        Op ttlOp = new Op(this.scanOp.getOriginSql(), Collections.emptyList(), "TTL", new String[0]);
+        List<Object> ttls = keys.isEmpty() ? Collections.emptyList() : this.redisClient.sendPipelined(ttlOp, paramsList);
+
+        List<Object> values = new ArrayList<>(keys.size() * 3);
+        for (int i = 0; i < keys.size(); i++) {
+            Object ttl = ttls.get(i);
+            values.add(keys.get(i));
+            values.add(this.type);
+            values.add(ttl instanceof Long ? ttl : null);
+        }
+        return values;
+    }
+
+    @Override
+    public boolean isLast() throws SQLException {
+        return this.finished && super.isLast();
+    }
+
+    @Override
+    public void beforeFirst() throws SQLException {
+        throw this.forwardOnly("beforeFirst");
+    }
+
+    @Override
+    public void afterLast() throws SQLException {
+        throw this.forwardOnly("afterLast");
+    }
+
+    @Override
+    public boolean first() throws SQLException {
+        throw this.forwardOnly("first");
+    }
+
+    @Override
+    public boolean last() throws SQLException {
+        throw this.forwardOnly("last");
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return this.count;
+    }
+
+    private SQLException forwardOnly(String method) {
+        LOGGER.log("%s cannot be called on a streaming ResultSet", method);
+        return new SQLException(method + " cannot be called on a streaming ResultSet");
+    }
+}
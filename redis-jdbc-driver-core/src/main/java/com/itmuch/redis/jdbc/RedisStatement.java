@@ -1,16 +1,30 @@
 package com.itmuch.redis.jdbc;
 
+import com.itmuch.redis.jdbc.conf.Op;
+
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class RedisStatement implements Statement {
     private final static Logger LOGGER = new Logger(RedisStatement.class);
 
-    private final RedisConnection connection;
-    private final RedisClient redisClient;
+    protected final RedisConnection connection;
+    protected final RedisClient redisClient;
 
-    private ResultSet resultSet;
+    protected ResultSet resultSet;
     private boolean isClosed = false;
-    private int fetchSize = 1;
+    private int fetchSize = 0;
+    /**
+     * in seconds, 0 for the read timeout of the connection
+     */
+    private int queryTimeout = 0;
+    /**
+     * whether a call of this statement is in flight, for {@link #cancel()}
+     */
+    private volatile boolean executing = false;
+    private final List<String> batch = new ArrayList<>();
 
     public RedisStatement(RedisConnection connection, RedisClient redisClient) {
         this.connection = connection;
@@ -23,17 +37,64 @@ public class RedisStatement implements Statement {
 
         this.checkClosed();
 
-        String[] result = this.redisClient.sendCommand(sql);
-        return new RedisResultSet(result, this);
+        return this.run(() -> this.query(sql));
     }
 
+    private ResultSet query(String sql) throws SQLException {
+        boolean shapeResults = this.connection.isShapeResults();
+        Op op = null;
+        if (this.connection.isStreamingScan()) {
+            op = this.redisClient.parse(sql);
+            ResultSet resultSet = this.redisClient.scan(op, this.fetchSize, shapeResults, this);
+            if (resultSet != null) {
+                return resultSet;
+            }
+        }
+        Object reply = this.redisClient.sendCommand(sql);
+        if (!shapeResults) {
+            return RedisResultSet.ofReply(reply, this);
+        }
+        if (op == null) {
+            op = this.redisClient.parse(sql);
+        }
+        return RedisResultSet.ofReply(op, reply, this);
+    }
+
+
+    /**
+     * Execute a query without waiting for its reply, so that a few threads can have many commands in flight.
+     * <p>
+     * Only a connection with {@code multiplexed=true} really sends asynchronously; on any other the command
+     * runs in the calling thread and the future is already complete. KEYS and scans are not streamed here.
+     * On a multiplexed connection, the future is completed in {@link java.util.concurrent.ForkJoinPool#commonPool()},
+     * where the stages chained without an executor run too: a stage that blocks should get an executor of its own.
+     *
+     * @return completed with the result set, or exceptionally with an {@link SQLException}
+     */
+    public CompletableFuture<ResultSet> executeAsync(String sql) {
+        LOGGER.log("executeAsync(%s)", sql);
+
+        Op op;
+        try {
+            this.checkClosed();
+            op = this.redisClient.parse(sql);
+        } catch (SQLException e) {
+            CompletableFuture<ResultSet> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        boolean shapeResults = this.connection.isShapeResults();
+        return this.redisClient.sendCommandAsync(sql).thenApply(reply -> shapeResults
+                ? RedisResultSet.ofReply(op, reply, this)
+                : RedisResultSet.ofReply(reply, this));
+    }
 
     @Override
     public int executeUpdate(String sql) throws SQLException {
         this.checkClosed();
 
-        String[] result = this.redisClient.sendCommand(sql);
-        return result.length;
+        Object reply = this.run(() -> this.redisClient.sendCommand(sql));
+        return Utils.flatten(reply).size();
     }
 
     @Override
@@ -82,17 +143,38 @@ public class RedisStatement implements Statement {
     @Override
     public int getQueryTimeout() throws SQLException {
         this.checkClosed();
-        return 0;
+        return this.queryTimeout;
     }
 
+    /**
+     * Bounds each socket read of the commands of this statement, a streamed scan being bounded page by page.
+     * A command that times out fails with {@link SQLTimeoutException} and the connection moves to a fresh socket.
+     *
+     * @throws SQLFeatureNotSupportedException for a timeout on a connection that cannot bound its commands
+     */
     @Override
     public void setQueryTimeout(int seconds) throws SQLException {
-        LOGGER.log("setQueryTimeout..");
+        LOGGER.log("setQueryTimeout(%s)", seconds);
+        this.checkClosed();
+        if (seconds < 0) {
+            throw new SQLException("query timeout must be >= 0, got " + seconds);
+        }
+        if (seconds > 0 && !this.redisClient.supportsQueryTimeout()) {
+            throw new SQLFeatureNotSupportedException("query timeout not supported by this connection, the timeout property bounds its commands");
+        }
+        this.queryTimeout = seconds;
     }
 
+    /**
+     * Abort the command of this statement in flight, if any; the connection moves to a fresh socket.
+     */
     @Override
     public void cancel() throws SQLException {
-        throw new SQLFeatureNotSupportedException("cancel not implemented");
+        LOGGER.log("cancel()");
+        this.checkClosed();
+        if (this.executing) {
+            this.redisClient.cancel(this);
+        }
     }
 
     @Override
@@ -116,8 +198,7 @@ public class RedisStatement implements Statement {
     public boolean execute(String sql) throws SQLException {
         this.checkClosed();
 
-        String[] result = this.redisClient.sendCommand(sql);
-        this.resultSet = new RedisResultSet(result, this);
+        this.resultSet = this.run(() -> this.query(sql));
 
         return true;
     }
@@ -159,6 +240,9 @@ public class RedisStatement implements Statement {
     @Override
     public void setFetchSize(int rows) throws SQLException {
         this.checkClosed();
+        if (rows < 0) {
+            throw new SQLException("fetch size must be >= 0, got " + rows);
+        }
         this.fetchSize = rows;
     }
 
@@ -183,22 +267,30 @@ public class RedisStatement implements Statement {
     @Override
     public void addBatch(String sql) throws SQLException {
         this.checkClosed();
-        LOGGER.log("addBatch not implemented");
-        throw new SQLFeatureNotSupportedException("addBatch not implemented");
+        this.batch.add(sql);
     }
 
     @Override
     public void clearBatch() throws SQLException {
         this.checkClosed();
-        LOGGER.log("clearBatch not implemented");
-        throw new SQLFeatureNotSupportedException("addBatch not implemented");
+        this.batch.clear();
     }
 
+    /**
+     * The queued commands are pipelined, see the {@code maxBatchSize} property.
+     */
     @Override
     public int[] executeBatch() throws SQLException {
         this.checkClosed();
-        LOGGER.log("executeBatch not implemented");
-        throw new SQLFeatureNotSupportedException("executeBatch not implemented");
+        LOGGER.log("executeBatch() of %s commands", this.batch.size());
+        if (this.batch.isEmpty()) {
+            return new int[0];
+        }
+        try {
+            return this.run(() -> this.redisClient.executeBatch(this.batch));
+        } finally {
+            this.batch.clear();
+        }
     }
 
     @Override
@@ -290,7 +382,21 @@ public class RedisStatement implements Statement {
         return false;
     }
 
-    private void checkClosed() throws SQLException {
+    /**
+     * Run a call to the client under the query timeout, as the command in flight of this statement.
+     */
+    <T> T run(RedisClient.Call<T> call) throws SQLException {
+        this.executing = true;
+        try {
+            return this.redisClient.withOwner(this, () -> this.queryTimeout > 0
+                    ? this.redisClient.withQueryTimeout(this.queryTimeout * 1000, call)
+                    : call.call());
+        } finally {
+            this.executing = false;
+        }
+    }
+
+    protected void checkClosed() throws SQLException {
         if (isClosed()) {
             LOGGER.log("Statement is closed.");
             throw new SQLException("Statement is closed.");
@@ -0,0 +1,224 @@
+package com.itmuch.redis.jdbc;
+
+import com.itmuch.redis.jdbc.conf.Op;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The columns of a result set, chosen from the command.
+ * <p>
+ * Values are kept row after row in one list, so the flat reply of HGETALL or ZRANGE WITHSCORES already is
+ * the value list of its two columns, nothing is copied.
+ */
+public enum ResultShape {
+    /**
+     * every value of the reply flattened into one column, the historical shape
+     */
+    SINGLE(new String[]{"RESULTS"}, new int[]{Types.NVARCHAR}),
+    /**
+     * an integer reply
+     */
+    INTEGER(new String[]{"RESULTS"}, new int[]{Types.BIGINT}),
+    /**
+     * HGETALL, HRANDFIELD WITHVALUES, HSCAN
+     */
+    HASH(new String[]{"field", "value"}, new int[]{Types.NVARCHAR, Types.NVARCHAR}),
+    /**
+     * ZRANGE and friends WITHSCORES, ZPOPMIN, ZPOPMAX, ZSCAN
+     */
+    SORTED_SET(new String[]{"member", "score"}, new int[]{Types.NVARCHAR, Types.DOUBLE}),
+    /**
+     * XRANGE, XREVRANGE: one row per field of each entry
+     */
+    STREAM(new String[]{"id", "field", "value"}, new int[]{Types.NVARCHAR, Types.NVARCHAR, Types.NVARCHAR}),
+    /**
+     * SCAN with TYPE, see {@link RedisScanResultSet}
+     */
+    KEY_TYPE_TTL(new String[]{"key", "type", "ttl"}, new int[]{Types.NVARCHAR, Types.NVARCHAR, Types.BIGINT});
+
+    private final String[] names;
+    private final int[] types;
+
+    ResultShape(String[] names, int[] types) {
+        this.names = names;
+        this.types = types;
+    }
+
+    public int getColumnCount() {
+        return this.names.length;
+    }
+
+    /**
+     * @param column 1-based
+     */
+    public String getColumnName(int column) {
+        return this.names[column - 1];
+    }
+
+    /**
+     * @param column 1-based
+     * @return a {@link Types} constant
+     */
+    public int getColumnType(int column) {
+        return this.types[column - 1];
+    }
+
+    /**
+     * @return the 1-based index of the column, or 0 if there is none with this name
+     */
+    public int findColumn(String name) {
+        for (int i = 0; i < this.names.length; i++) {
+            if (this.names[i].equalsIgnoreCase(name)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The shape of the reply of a command that is not streamed.
+     */
+    public static ResultShape of(Op op, Object reply) {
+        if (reply instanceof Long) {
+            return INTEGER;
+        }
+        if (!(reply instanceof List)) {
+            return SINGLE;
+        }
+        String command = op.getCommand();
+        if ("HGETALL".equalsIgnoreCase(command)) {
+            return HASH;
+        }
+        if ("HRANDFIELD".equalsIgnoreCase(command) && hasOption(op.getParams(), 2, "WITHVALUES")) {
+            return HASH;
+        }
+        if ("ZPOPMIN".equalsIgnoreCase(command) || "ZPOPMAX".equalsIgnoreCase(command)) {
+            return SORTED_SET;
+        }
+        int optionsFrom = withScoresOptionsFrom(command, op.getParams());
+        if (optionsFrom >= 0 && hasOption(op.getParams(), optionsFrom, "WITHSCORES")) {
+            return SORTED_SET;
+        }
+        if ("XRANGE".equalsIgnoreCase(command) || "XREVRANGE".equalsIgnoreCase(command)) {
+            return STREAM;
+        }
+        return SINGLE;
+    }
+
+    /**
+     * The shape of the elements streamed by a scan command.
+     */
+    public static ResultShape ofScan(String scanCommand, String[] params) {
+        if ("HSCAN".equalsIgnoreCase(scanCommand)) {
+            return HASH;
+        }
+        if ("ZSCAN".equalsIgnoreCase(scanCommand)) {
+            return SORTED_SET;
+        }
+        if ("SCAN".equalsIgnoreCase(scanCommand) && indexOfScanOption(params, 1, "TYPE") >= 0) {
+            return KEY_TYPE_TTL;
+        }
+        return SINGLE;
+    }
+
+    /**
+     * @return the index of the first option of a command taking {@code WITHSCORES}, after its keys and range,
+     * or -1 for any other command
+     */
+    private static int withScoresOptionsFrom(String command, String[] params) {
+        switch (command.toUpperCase(Locale.ROOT)) {
+            case "ZRANGE":
+            case "ZREVRANGE":
+            case "ZRANGEBYSCORE":
+            case "ZREVRANGEBYSCORE":
+                // key start stop
+                return 3;
+            case "ZRANDMEMBER":
+                // key count
+                return 2;
+            case "ZUNION":
+            case "ZINTER":
+            case "ZDIFF":
+                // numkeys key...
+                try {
+                    return params.length > 0 ? 1 + Integer.parseInt(params[0]) : -1;
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            default:
+                return -1;
+        }
+    }
+
+    private static boolean hasOption(String[] params, int from, String option) {
+        for (int i = from; i < params.length; i++) {
+            if (option.equalsIgnoreCase(params[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param from the index of the first option of the scan command, after its key and cursor
+     * @return the index of the option keyword, its value being next, or -1 if there is none; a MATCH pattern or
+     * a TYPE named like an option is a value, not a keyword
+     */
+    static int indexOfScanOption(String[] params, int from, String option) {
+        int i = from;
+        while (i < params.length) {
+            if (option.equalsIgnoreCase(params[i])) {
+                return i;
+            }
+            // MATCH, COUNT and TYPE have a value, a flag such as NOVALUES has none
+            i += isScanOptionWithValue(params[i]) ? 2 : 1;
+        }
+        return -1;
+    }
+
+    static boolean isScanOptionWithValue(String param) {
+        return "MATCH".equalsIgnoreCase(param) || "COUNT".equalsIgnoreCase(param) || "TYPE".equalsIgnoreCase(param);
+    }
+
+    /**
+     * Lay out the values of a raw reply row after row.
+     */
+    public List<?> values(Object reply) {
+        switch (this) {
+            case HASH:
+            case SORTED_SET:
+                return (List<?>) reply;
+            case STREAM:
+                return streamValues((List<?>) reply);
+            default:
+                return Utils.flatten(reply);
+        }
+    }
+
+    /**
+     * {@code [[id, [field, value, ...]], ...]} to {@code [id, field, value, id, field, value, ...]}
+     */
+    private static List<Object> streamValues(List<?> entries) {
+        List<Object> values = new ArrayList<>(entries.size() * 6);
+        for (Object entry : entries) {
+            List<?> idAndFields = (List<?>) entry;
+            Object id = idAndFields.get(0);
+            List<?> fields = (List<?>) idAndFields.get(1);
+            if (fields == null || fields.isEmpty()) {
+                values.add(id);
+                values.add(null);
+                values.add(null);
+                continue;
+            }
+            for (int i = 0; i + 1 < fields.size(); i += 2) {
+                values.add(id);
+                values.add(fields.get(i));
+                values.add(fields.get(i + 1));
+            }
+        }
+        return values;
+    }
+}
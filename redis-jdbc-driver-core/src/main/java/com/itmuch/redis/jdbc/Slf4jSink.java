@@ -0,0 +1,34 @@
+package com.itmuch.redis.jdbc;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Kept out of {@link Logger} so that SLF4J is only linked when it is the chosen backend.
+ */
+class Slf4jSink implements Logger.Sink {
+    private final org.slf4j.Logger logger;
+
+    Slf4jSink(Class<?> mark) {
+        this.logger = LoggerFactory.getLogger(mark);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return this.logger.isDebugEnabled();
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return this.logger.isWarnEnabled();
+    }
+
+    @Override
+    public void debug(String message) {
+        this.logger.debug(message);
+    }
+
+    @Override
+    public void warn(String message, Throwable cause) {
+        this.logger.warn(message, cause);
+    }
+}
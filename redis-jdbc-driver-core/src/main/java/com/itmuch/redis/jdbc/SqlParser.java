@@ -0,0 +1,296 @@
+package com.itmuch.redis.jdbc;
+
+import com.itmuch.redis.jdbc.conf.Hint;
+import com.itmuch.redis.jdbc.conf.Op;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Single-pass lexer turning a SQL string into an {@link Op}.
+ * <p>
+ * Rules:
+ * <ul>
+ *     <li>tokens are separated by any run of spaces, tabs and line breaks;</li>
+ *     <li>a line whose first non-blank characters are {@code --} is a hint, e.g. {@code -- sample_key: user:1};</li>
+ *     <li>{@code "..."} supports the escapes {@code \" \\ \n \r \t \b \a \xHH}, as in redis-cli; {@code \xHH} is
+ *     one byte, so a param with {@code \x80} to {@code \xff} is sent as {@link Op#getBinaryParams() binary};</li>
+ *     <li>{@code '...'} is literal except for {@code \'}.</li>
+ * </ul>
+ * When parsing a prepared statement, a bare {@code ?} token is a placeholder and comes back as a null param;
+ * a quoted {@code "?"} stays a literal.
+ */
+public final class SqlParser {
+    private static final String[] EMPTY = new String[0];
+
+    private static final String KEEP_ALIVE_COMMAND = "SELECT";
+    private static final String KEEP_ALIVE_PARAM = "keep alive";
+
+    private final String sql;
+    private final int length;
+    private final boolean placeholders;
+    private int pos;
+    /**
+     * bytes of the double-quoted token being read, once an escape gave a byte that is not a char of its own
+     */
+    private ByteArrayOutputStream binaryToken;
+    private byte[][] binaryTokens;
+
+    private SqlParser(String sql, boolean placeholders) {
+        this.sql = sql;
+        this.length = sql.length();
+        this.placeholders = placeholders;
+    }
+
+    public static Op parse(String rawSql, Set<String> allowedHintKeys) {
+        return parse(rawSql, allowedHintKeys, false);
+    }
+
+    /**
+     * @param placeholders whether a bare {@code ?} is a placeholder, returned as a null param
+     */
+    public static Op parse(String rawSql, Set<String> allowedHintKeys, boolean placeholders) {
+        if (allowedHintKeys == null || allowedHintKeys.size() == 0) {
+            allowedHintKeys = Hint.DEFAULT_ALLOWED_KEYS;
+        }
+        return new SqlParser(rawSql, placeholders).parse(allowedHintKeys);
+    }
+
+    private Op parse(Set<String> allowedHintKeys) {
+        List<Hint> hints = null;
+        String[] tokens = EMPTY;
+        int count = 0;
+
+        boolean lineStart = true;
+        while (pos < length) {
+            char c = sql.charAt(pos);
+            if (c == '\n') {
+                lineStart = true;
+                pos++;
+            } else if (isBlank(c)) {
+                pos++;
+            } else if (lineStart && c == '-' && pos + 1 < length && sql.charAt(pos + 1) == '-') {
+                if (hints == null) {
+                    hints = new ArrayList<>(2);
+                }
+                hints.add(this.readHint(allowedHintKeys));
+            } else {
+                lineStart = false;
+                if (count == tokens.length) {
+                    tokens = Arrays.copyOf(tokens, count == 0 ? 8 : count << 1);
+                }
+                tokens[count] = this.readToken();
+                if (binaryToken != null) {
+                    if (binaryTokens == null) {
+                        binaryTokens = new byte[tokens.length][];
+                    } else if (binaryTokens.length < tokens.length) {
+                        binaryTokens = Arrays.copyOf(binaryTokens, tokens.length);
+                    }
+                    binaryTokens[count] = binaryToken.toByteArray();
+                    binaryToken = null;
+                }
+                count++;
+            }
+        }
+
+        if (hints == null) {
+            hints = Collections.emptyList();
+        }
+        if (count == 0) {
+            return new Op(sql, hints, "", EMPTY);
+        }
+
+        String command = tokens[0];
+        if (command == null) {
+            throw new IllegalArgumentException(String.format("command cannot be a placeholder. sql = %s", sql));
+        }
+        // for IDEA database tool only
+        if (count == 2 && KEEP_ALIVE_COMMAND.equals(command) && KEEP_ALIVE_PARAM.equals(tokens[1])) {
+            return new Op(sql, hints, "PING", EMPTY);
+        }
+        String[] params = count == 1 ? EMPTY : Arrays.copyOfRange(tokens, 1, count);
+        byte[][] binaryParams = binaryTokens == null ? null : Arrays.copyOfRange(binaryTokens, 1, count);
+        return new Op(sql, hints, command, params, binaryParams);
+    }
+
+    /**
+     * {@code -- key: value} up to the end of the line.
+     */
+    private Hint readHint(Set<String> allowedHintKeys) {
+        pos += 2;
+        int start = pos;
+        int colon = -1;
+        while (pos < length && sql.charAt(pos) != '\n') {
+            if (colon < 0 && sql.charAt(pos) == ':') {
+                colon = pos;
+            }
+            pos++;
+        }
+        int end = pos;
+
+        String key = colon < 0 ? this.trim(start, end) : this.trim(start, colon);
+        String value = colon < 0 ? "" : this.trim(colon + 1, end);
+        return new Hint(allowedHintKeys.contains(key) ? key : "noop", value);
+    }
+
+    private String readToken() {
+        char c = sql.charAt(pos);
+        if (c == '"') {
+            return this.readDoubleQuoted();
+        }
+        if (c == '\'') {
+            return this.readSingleQuoted();
+        }
+        int start = pos;
+        while (pos < length && !isSeparator(sql.charAt(pos))) {
+            pos++;
+        }
+        if (placeholders && pos - start == 1 && c == '?') {
+            return null;
+        }
+        return sql.substring(start, pos);
+    }
+
+    private String readDoubleQuoted() {
+        int start = ++pos;
+        StringBuilder sb = null;
+        // chars of sb already in binaryToken
+        int flushed = 0;
+        while (pos < length) {
+            char c = sql.charAt(pos);
+            if (c == '"') {
+                String token = sb == null ? sql.substring(start, pos) : sb.toString();
+                if (binaryToken != null) {
+                    this.appendBinary(sb, flushed);
+                }
+                pos++;
+                this.checkClosingQuote();
+                return token;
+            }
+            if (c == '\\' && pos + 1 < length) {
+                if (sb == null) {
+                    sb = new StringBuilder(pos - start + 16).append(sql, start, pos);
+                }
+                pos++;
+                char next = sql.charAt(pos);
+                switch (next) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'a':
+                        sb.append('\u0007');
+                        break;
+                    case 'x':
+                        if (pos + 2 < length && isHex(sql.charAt(pos + 1)) && isHex(sql.charAt(pos + 2))) {
+                            int b = (Character.digit(sql.charAt(pos + 1), 16) << 4) | Character.digit(sql.charAt(pos + 2), 16);
+                            if (b >= 0x80) {
+                                // not the UTF-8 of any char: the token becomes binary, its string form
+                                // keeping the byte as a Latin-1 char
+                                this.appendBinary(sb, flushed);
+                                binaryToken.write(b);
+                                sb.append((char) b);
+                                flushed = sb.length();
+                            } else {
+                                sb.append((char) b);
+                            }
+                            pos += 2;
+                        } else {
+                            sb.append(next);
+                        }
+                        break;
+                    default:
+                        sb.append(next);
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+            pos++;
+        }
+        throw new IllegalArgumentException(String.format("unbalanced quotes in sql. sql = %s", sql));
+    }
+
+    /**
+     * Copy the chars of the token read since the last binary byte into {@link #binaryToken}, as UTF-8.
+     */
+    private void appendBinary(StringBuilder sb, int flushed) {
+        if (binaryToken == null) {
+            binaryToken = new ByteArrayOutputStream(sb.length() + 16);
+        }
+        byte[] text = sb.substring(flushed).getBytes(StandardCharsets.UTF_8);
+        binaryToken.write(text, 0, text.length);
+    }
+
+    private String readSingleQuoted() {
+        int start = ++pos;
+        StringBuilder sb = null;
+        while (pos < length) {
+            char c = sql.charAt(pos);
+            if (c == '\'') {
+                String token = sb == null ? sql.substring(start, pos) : sb.toString();
+                pos++;
+                this.checkClosingQuote();
+                return token;
+            }
+            if (c == '\\' && pos + 1 < length && sql.charAt(pos + 1) == '\'') {
+                if (sb == null) {
+                    sb = new StringBuilder(pos - start + 16).append(sql, start, pos);
+                }
+                sb.append('\'');
+                pos += 2;
+                continue;
+            }
+            if (sb != null) {
+                sb.append(c);
+            }
+            pos++;
+        }
+        throw new IllegalArgumentException(String.format("unbalanced quotes in sql. sql = %s", sql));
+    }
+
+    /**
+     * A closing quote must be followed by a separator, like redis-cli does.
+     */
+    private void checkClosingQuote() {
+        if (pos < length && !isSeparator(sql.charAt(pos))) {
+            throw new IllegalArgumentException(
+                    String.format("closing quote must be followed by a space. sql = %s", sql)
+            );
+        }
+    }
+
+    private String trim(int start, int end) {
+        while (start < end && isSeparator(sql.charAt(start))) {
+            start++;
+        }
+        while (end > start && isSeparator(sql.charAt(end - 1))) {
+            end--;
+        }
+        return sql.substring(start, end);
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '\n' || isBlank(c);
+    }
+
+    private static boolean isHex(char c) {
+        return Character.digit(c, 16) >= 0;
+    }
+}
@@ -1,10 +1,8 @@
 package com.itmuch.redis.jdbc;
 
-import com.itmuch.redis.jdbc.conf.Hint;
 import com.itmuch.redis.jdbc.conf.Op;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -32,61 +30,7 @@ public class Utils {
     }
 
     public static Op parseSql(String rawSql, Set<String> allowedHintKeys) {
-        if (allowedHintKeys == null || allowedHintKeys.size() == 0) {
-            allowedHintKeys = Hint.DEFAULT_ALLOWED_KEYS;
-        }
-
-        // for IDEA database tool only
-        if (rawSql.contains("SELECT 'keep alive'")) {
-            return new Op(rawSql, null, "PING", new String[0]);
-        }
-
-        // hints
-        List<String> lines = new BufferedReader(new StringReader(rawSql))
-                .lines()
-                .collect(Collectors.toList());
-
-        List<String> hintLines = new ArrayList<>();
-        List<String> sqlLines = new ArrayList<>();
-        lines.forEach(line -> {
-            if (line.startsWith("--")) {
-                hintLines.add(line);
-            } else {
-                sqlLines.add(line);
-            }
-        });
-
-        Set<String> finalAllowedHintKeys = allowedHintKeys;
-        List<Hint> hints = hintLines
-                .stream()
-                .map(line -> {
-                    String hintStr = line.replace("--", "")
-                            .replaceAll(" ", "");
-                    String[] arr = hintStr.split(":");
-
-                    boolean contains = finalAllowedHintKeys.contains(arr[0]);
-                    String hintKey = contains ? arr[0] : "noop";
-
-                    return new Hint(hintKey, arr[1]);
-                }).collect(Collectors.toList());
-
-
-        // sql to execute
-        StringBuilder sb = new StringBuilder();
-        sqlLines.forEach(sb::append);
-
-        String sql = sb.toString();
-
-        String[] arr = sql.split(" ");
-
-        String commandString = arr[0];
-
-        if (arr.length == 1) {
-            return new Op(rawSql, hints, commandString, new String[0]);
-        } else {
-            String[] commandParams = Arrays.copyOfRange(arr, 1, arr.length);
-            return new Op(rawSql, hints, commandString, commandParams);
-        }
+        return SqlParser.parse(rawSql, allowedHintKeys);
     }
 
     public static Map<String, String> parseQueryStringToMap(String queryString) {
@@ -124,4 +68,58 @@ public class Utils {
         }
         return list;
     }
+
+    /**
+     * The values of a raw reply, one per row. A flat multi-bulk reply is returned as is, nested ones are flattened
+     * into a new list of the same values; nothing is decoded.
+     */
+    public static List<?> flatten(Object reply) {
+        if (!(reply instanceof List)) {
+            return Collections.singletonList(reply);
+        }
+        List<?> list = (List<?>) reply;
+        for (Object value : list) {
+            if (value instanceof Collection) {
+                return flatten(list, new ArrayList<>(list.size() * 2));
+            }
+        }
+        return list;
+    }
+
+    private static List<Object> flatten(Collection<?> collection, List<Object> values) {
+        for (Object value : collection) {
+            if (value instanceof Collection) {
+                flatten((Collection<?>) value, values);
+            } else {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Decode one value of a raw reply: bulk strings as UTF-8, like Jedis does, integers in decimal.
+     */
+    public static String decode(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof byte[]) {
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Parse a double the way Redis writes it, {@code inf} and {@code -inf} included.
+     */
+    public static double parseDouble(String string) {
+        if ("inf".equalsIgnoreCase(string) || "+inf".equalsIgnoreCase(string)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if ("-inf".equalsIgnoreCase(string)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Double.parseDouble(string);
+    }
 }
@@ -12,12 +12,18 @@ public class BaseConnectionInfo {
     protected String password;
     protected boolean ssl;
     protected int timeout;
+    protected boolean statementCache;
+    protected int statementCacheSize;
+    protected int maxBatchSize;
 
     public BaseConnectionInfo(Properties info) {
         String username = info.getProperty("user");
         String password = info.getProperty("password");
         String sslString = info.getProperty("ssl");
         Object timeoutString = info.getOrDefault("timeout", "1000");
+        String statementCacheString = info.getProperty("statementCache", "true");
+        Object statementCacheSizeString = info.getOrDefault("statementCacheSize", "256");
+        Object maxBatchSizeString = info.getOrDefault("maxBatchSize", "1000");
 
         boolean ssl = "on".equalsIgnoreCase(sslString) || "true".equalsIgnoreCase(sslString);
 
@@ -25,5 +31,8 @@ public class BaseConnectionInfo {
         this.password = password;
         this.timeout = Integer.parseInt(timeoutString.toString());
         this.ssl = ssl;
+        this.statementCache = "on".equalsIgnoreCase(statementCacheString) || "true".equalsIgnoreCase(statementCacheString);
+        this.statementCacheSize = Integer.parseInt(statementCacheSizeString.toString());
+        this.maxBatchSize = Integer.parseInt(maxBatchSizeString.toString());
     }
 }
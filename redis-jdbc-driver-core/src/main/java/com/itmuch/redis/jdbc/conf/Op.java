@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 @Data
@@ -29,4 +30,32 @@ public class Op {
      * SQL解析出来的参数
      */
     private String[] params;
+
+    /**
+     * 二进制参数: 含有 {@code \xHH} 转义出的非ASCII字节的参数原样发送, 其余为null; 没有这样的参数时为null
+     */
+    private byte[][] binaryParams;
+
+    public Op(String originSql, List<Hint> hints, String command, String[] params) {
+        this(originSql, hints, command, params, null);
+    }
+
+    /**
+     * @return the param as sent to Redis: its UTF-8 bytes, or the bytes of a {@code \xHH} escape as is
+     */
+    public byte[] encodeParam(int index) {
+        if (this.binaryParams != null && this.binaryParams[index] != null) {
+            return this.binaryParams[index];
+        }
+        String param = this.params[index];
+        return param == null ? null : param.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public byte[][] encodeParams() {
+        byte[][] encoded = new byte[this.params.length][];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = this.encodeParam(i);
+        }
+        return encoded;
+    }
 }
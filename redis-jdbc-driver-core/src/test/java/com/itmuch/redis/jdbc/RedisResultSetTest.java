@@ -0,0 +1,81 @@
+package com.itmuch.redis.jdbc;
+
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RedisResultSetTest {
+
+    @Test
+    public void integerRepliesInRange() throws SQLException {
+        RedisResultSet resultSet = new RedisResultSet(Arrays.asList(42L, (long) Integer.MIN_VALUE), null);
+        assertTrue(resultSet.next());
+        assertEquals(42, resultSet.getInt(1));
+        assertEquals(42, resultSet.getShort(1));
+        assertTrue(resultSet.next());
+        assertEquals(Integer.MIN_VALUE, resultSet.getInt(1));
+    }
+
+    @Test
+    public void integerReplyOutOfIntRange() throws SQLException {
+        RedisResultSet resultSet = new RedisResultSet(Arrays.asList(1L << 40), null);
+        assertTrue(resultSet.next());
+        assertEquals(1L << 40, resultSet.getLong(1));
+        try {
+            resultSet.getInt(1);
+            fail();
+        } catch (SQLException e) {
+            assertEquals("22003", e.getSQLState());
+        }
+    }
+
+    @Test
+    public void integerReplyOutOfShortRange() throws SQLException {
+        RedisResultSet resultSet = new RedisResultSet(Arrays.asList(1L << 20), null);
+        assertTrue(resultSet.next());
+        try {
+            resultSet.getShort(1);
+            fail();
+        } catch (SQLException e) {
+            assertEquals("22003", e.getSQLState());
+        }
+    }
+
+    @Test
+    public void stringRepliesAsIntegers() throws SQLException {
+        RedisResultSet resultSet = new RedisResultSet(Arrays.asList("42", "99999999999", "99999999999999999999", "abc"), null);
+        assertTrue(resultSet.next());
+        assertEquals(42, resultSet.getInt(1));
+        assertEquals(42, resultSet.getShort(1));
+
+        assertTrue(resultSet.next());
+        assertEquals(99999999999L, resultSet.getLong(1));
+        assertSQLState("22003", () -> resultSet.getInt(1));
+        assertSQLState("22003", () -> resultSet.getShort(1));
+
+        assertTrue(resultSet.next());
+        assertSQLState("22003", () -> resultSet.getLong(1));
+
+        assertTrue(resultSet.next());
+        assertSQLState("22018", () -> resultSet.getInt(1));
+        assertSQLState("22018", () -> resultSet.getLong(1));
+    }
+
+    private interface Getter {
+        void get() throws SQLException;
+    }
+
+    private static void assertSQLState(String sqlState, Getter getter) {
+        try {
+            getter.get();
+            fail();
+        } catch (SQLException e) {
+            assertEquals(sqlState, e.getSQLState());
+        }
+    }
+}
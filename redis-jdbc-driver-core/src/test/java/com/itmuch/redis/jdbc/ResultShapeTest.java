@@ -0,0 +1,65 @@
+package com.itmuch.redis.jdbc;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ResultShapeTest {
+
+    private static String[] params(String sql) {
+        return SqlParser.parse(sql, null).getParams();
+    }
+
+    private static ResultShape shape(String sql) {
+        return ResultShape.of(SqlParser.parse(sql, null), Collections.emptyList());
+    }
+
+    @Test
+    public void withScoresAfterRange() {
+        assertEquals(ResultShape.SORTED_SET, shape("ZRANGE z 0 -1 WITHSCORES"));
+        assertEquals(ResultShape.SORTED_SET, shape("ZRANGE z 0 10 BYSCORE LIMIT 0 5 withscores"));
+        assertEquals(ResultShape.SORTED_SET, shape("ZREVRANGEBYSCORE z +inf -inf WITHSCORES LIMIT 0 5"));
+        assertEquals(ResultShape.SORTED_SET, shape("ZRANDMEMBER z 3 WITHSCORES"));
+        assertEquals(ResultShape.SORTED_SET, shape("ZUNION 2 a b WEIGHTS 1 2 WITHSCORES"));
+    }
+
+    @Test
+    public void keysAndMembersNamedLikeOptions() {
+        assertEquals(ResultShape.SINGLE, shape("ZRANGE WITHSCORES 0 -1"));
+        assertEquals(ResultShape.SINGLE, shape("ZMSCORE z WITHSCORES"));
+        assertEquals(ResultShape.SINGLE, shape("ZSCORE z WITHSCORES"));
+        assertEquals(ResultShape.SINGLE, shape("ZUNION 2 a WITHSCORES"));
+        assertEquals(ResultShape.SINGLE, shape("HRANDFIELD WITHVALUES 2"));
+        assertEquals(ResultShape.HASH, shape("HRANDFIELD h 2 WITHVALUES"));
+    }
+
+    @Test
+    public void scanWithType() {
+        assertEquals(ResultShape.KEY_TYPE_TTL, ResultShape.ofScan("SCAN", params("SCAN 0 MATCH a* TYPE string")));
+        assertEquals(ResultShape.KEY_TYPE_TTL, ResultShape.ofScan("SCAN", params("SCAN 0 type hash COUNT 10")));
+    }
+
+    @Test
+    public void matchPatternNamedType() {
+        assertEquals(ResultShape.SINGLE, ResultShape.ofScan("SCAN", params("SCAN 0 MATCH type")));
+        assertEquals(ResultShape.SINGLE, ResultShape.ofScan("SCAN", params("SCAN 0 MATCH TYPE COUNT 5")));
+        assertEquals(-1, ResultShape.indexOfScanOption(params("SCAN 0 MATCH count"), 1, "COUNT"));
+    }
+
+    @Test
+    public void scanOptionAfterFlag() {
+        assertEquals(3, ResultShape.indexOfScanOption(params("HSCAN h 0 NOVALUES COUNT 5"), 2, "COUNT"));
+    }
+
+    @Test
+    public void bareOptionIsNotStreamed() {
+        assertNull(RedisScanResultSet.of(SqlParser.parse("SCAN 0 TYPE", null), null, 10, true, null));
+        assertNull(RedisScanResultSet.of(SqlParser.parse("SCAN 0 MATCH", null), null, 10, false, null));
+        assertNull(RedisScanResultSet.of(SqlParser.parse("HSCAN h 0 COUNT", null), null, 10, false, null));
+        assertNotNull(RedisScanResultSet.of(SqlParser.parse("SCAN 0 MATCH type", null), null, 10, true, null));
+    }
+}
@@ -0,0 +1,112 @@
+package com.itmuch.redis.jdbc;
+
+import com.itmuch.redis.jdbc.conf.Hint;
+import com.itmuch.redis.jdbc.conf.Op;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares {@link SqlParser} with the BufferedReader/regex parser it replaced.
+ * Run it through {@link #main(String[])}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SqlParserBenchmark {
+    @Param({
+            "GET config:flags",
+            "HSET user:1 name tom age 18",
+            "-- sample_key: user:1\nHGETALL user:1"
+    })
+    public String sql;
+
+    @Benchmark
+    public Op sqlParser() {
+        return SqlParser.parse(sql, null);
+    }
+
+    @Benchmark
+    public Op legacyParser() {
+        return legacyParseSql(sql, null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SqlParserBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * The parser as it was before {@link SqlParser}, kept here as the baseline.
+     */
+    static Op legacyParseSql(String rawSql, Set<String> allowedHintKeys) {
+        if (allowedHintKeys == null || allowedHintKeys.size() == 0) {
+            allowedHintKeys = Hint.DEFAULT_ALLOWED_KEYS;
+        }
+
+        if (rawSql.contains("SELECT 'keep alive'")) {
+            return new Op(rawSql, null, "PING", new String[0]);
+        }
+
+        List<String> lines = new BufferedReader(new StringReader(rawSql))
+                .lines()
+                .collect(Collectors.toList());
+
+        List<String> hintLines = new ArrayList<>();
+        List<String> sqlLines = new ArrayList<>();
+        lines.forEach(line -> {
+            if (line.startsWith("--")) {
+                hintLines.add(line);
+            } else {
+                sqlLines.add(line);
+            }
+        });
+
+        Set<String> finalAllowedHintKeys = allowedHintKeys;
+        List<Hint> hints = hintLines
+                .stream()
+                .map(line -> {
+                    String hintStr = line.replace("--", "")
+                            .replaceAll(" ", "");
+                    String[] arr = hintStr.split(":");
+
+                    boolean contains = finalAllowedHintKeys.contains(arr[0]);
+                    String hintKey = contains ? arr[0] : "noop";
+
+                    return new Hint(hintKey, arr[1]);
+                }).collect(Collectors.toList());
+
+        StringBuilder sb = new StringBuilder();
+        sqlLines.forEach(sb::append);
+
+        String sql = sb.toString();
+
+        String[] arr = sql.split(" ");
+
+        String commandString = arr[0];
+
+        if (arr.length == 1) {
+            return new Op(rawSql, hints, commandString, new String[0]);
+        } else {
+            String[] commandParams = Arrays.copyOfRange(arr, 1, arr.length);
+            return new Op(rawSql, hints, commandString, commandParams);
+        }
+    }
+}
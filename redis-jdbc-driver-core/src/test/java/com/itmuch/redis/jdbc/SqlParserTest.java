@@ -0,0 +1,126 @@
+package com.itmuch.redis.jdbc;
+
+import com.itmuch.redis.jdbc.conf.Hint;
+import com.itmuch.redis.jdbc.conf.Op;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SqlParserTest {
+
+    @Test
+    public void splitsOnWhitespaceRuns() {
+        Op op = SqlParser.parse("  SET \t key\r\n   value  ", null);
+        assertEquals("SET", op.getCommand());
+        assertArrayEquals(new String[]{"key", "value"}, op.getParams());
+        assertNull(op.getBinaryParams());
+    }
+
+    @Test
+    public void emptySqlHasNoCommand() {
+        Op op = SqlParser.parse(" \n\t ", null);
+        assertEquals("", op.getCommand());
+        assertEquals(0, op.getParams().length);
+    }
+
+    @Test
+    public void doubleQuotesKeepSpaces() {
+        Op op = SqlParser.parse("SET \"a key\" \"\"", null);
+        assertArrayEquals(new String[]{"a key", ""}, op.getParams());
+    }
+
+    @Test
+    public void singleQuotesAreLiteralButForQuote() {
+        Op op = SqlParser.parse("SET 'it\\'s' 'a\\nb'", null);
+        assertArrayEquals(new String[]{"it's", "a\\nb"}, op.getParams());
+    }
+
+    @Test
+    public void doubleQuotesEscapes() {
+        Op op = SqlParser.parse("SET k \"q\\\" b\\\\ n\\n r\\r t\\t b\\b a\\a x\\x41 z\\z\"", null);
+        assertArrayEquals(new String[]{"k", "q\" b\\ n\n r\r t\t b\b a\u0007 xA zz"}, op.getParams());
+        assertNull(op.getBinaryParams());
+    }
+
+    @Test
+    public void malformedHexEscapeIsLiteral() {
+        Op op = SqlParser.parse("GET \"\\xZ1\"", null);
+        assertArrayEquals(new String[]{"xZ1"}, op.getParams());
+    }
+
+    @Test
+    public void highHexEscapeIsOneByte() {
+        Op op = SqlParser.parse("SET \"k\\xff\" \"é\\x80\\x00z\" plain", null);
+        assertArrayEquals(new byte[]{'k', (byte) 0xff}, op.encodeParam(0));
+        assertArrayEquals(new byte[]{(byte) 0xc3, (byte) 0xa9, (byte) 0x80, 0, 'z'}, op.encodeParam(1));
+        assertArrayEquals("plain".getBytes(StandardCharsets.UTF_8), op.encodeParam(2));
+        assertNull(op.getBinaryParams()[2]);
+        assertEquals("k\u00ff", op.getParams()[0]);
+    }
+
+    @Test
+    public void lowHexEscapeIsText() {
+        Op op = SqlParser.parse("SET k \"\\x7f\"", null);
+        assertNull(op.getBinaryParams());
+        assertArrayEquals(new byte[]{0x7f}, op.encodeParam(1));
+    }
+
+    @Test
+    public void binaryPlaceholderTemplate() {
+        Op op = SqlParser.parse("SET \"\\xfe\" ?", null, true);
+        assertArrayEquals(new byte[]{(byte) 0xfe}, op.encodeParam(0));
+        assertNull(op.getParams()[1]);
+        assertNull(op.encodeParam(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unbalancedQuotes() {
+        SqlParser.parse("GET \"key", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void closingQuoteFollowedByText() {
+        SqlParser.parse("GET \"key\"x", null);
+    }
+
+    @Test
+    public void hintsOnTheirOwnLines() {
+        Op op = SqlParser.parse("-- sample_key: user:1\n  -- decoder : json \nHGETALL user:1\n-- unknown: x", null);
+        assertEquals("HGETALL", op.getCommand());
+        assertArrayEquals(new String[]{"user:1"}, op.getParams());
+        assertEquals(3, op.getHints().size());
+        assertEquals(new Hint(Hint.HINT_KEY_SAMPLE_KEY, "user:1"), op.getHints().get(0));
+        assertEquals(new Hint(Hint.HINT_KEY_DECODER, "json"), op.getHints().get(1));
+        assertEquals("noop", op.getHints().get(2).getKey());
+    }
+
+    @Test
+    public void dashesAfterATokenAreAParam() {
+        Op op = SqlParser.parse("GET --key", null);
+        assertArrayEquals(new String[]{"--key"}, op.getParams());
+        assertEquals(0, op.getHints().size());
+    }
+
+    @Test
+    public void multiLineStatement() {
+        Op op = SqlParser.parse("HSET user:1\n  name \"tom\"\n  age 18\n", null);
+        assertEquals("HSET", op.getCommand());
+        assertArrayEquals(new String[]{"user:1", "name", "tom", "age", "18"}, op.getParams());
+    }
+
+    @Test
+    public void placeholders() {
+        Op op = SqlParser.parse("SET ? \"?\" ?x", null, true);
+        assertArrayEquals(new String[]{null, "?", "?x"}, op.getParams());
+        assertArrayEquals(new String[]{"?", "?", "?x"}, SqlParser.parse("SET ? \"?\" ?x", null).getParams());
+    }
+
+    @Test
+    public void keepAliveIsPing() {
+        assertEquals("PING", SqlParser.parse("SELECT 'keep alive'", null).getCommand());
+    }
+}
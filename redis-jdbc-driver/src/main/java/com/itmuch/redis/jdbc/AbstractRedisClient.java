@@ -1,77 +1,278 @@
 package com.itmuch.redis.jdbc;
 
-import com.itmuch.redis.jdbc.conf.Hint;
+import com.itmuch.redis.jdbc.conf.BaseConnectionInfo;
 import com.itmuch.redis.jdbc.conf.Op;
-import redis.clients.jedis.Protocol;
+import redis.clients.jedis.commands.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisDataException;
 import redis.clients.jedis.util.SafeEncoder;
 
+import java.net.SocketTimeoutException;
+import java.sql.BatchUpdateException;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 public abstract class AbstractRedisClient implements RedisClient {
     public static final Logger LOGGER = new Logger(AbstractRedisClient.class);
 
+    private final StatementCache statementCache;
+    private final int maxBatchSize;
+
+    protected AbstractRedisClient(BaseConnectionInfo connectionInfo) {
+        this.statementCache = connectionInfo.isStatementCache()
+                ? new StatementCache(connectionInfo.getStatementCacheSize())
+                : null;
+        if (connectionInfo.getMaxBatchSize() <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("maxBatchSize must be positive. maxBatchSize = %s", connectionInfo.getMaxBatchSize())
+            );
+        }
+        this.maxBatchSize = connectionInfo.getMaxBatchSize();
+    }
+
     @Override
-    public String[] sendCommand(String sql) throws SQLException {
+    public Op parse(String sql) throws SQLException {
         try {
-            Op op = Utils.parseSql(sql, null);
+            return this.compile(sql).getOp();
+        } catch (Throwable e) {
+            throw new SQLException(e);
+        }
+    }
 
-            Object result = this.sendCommand(op);
+    @Override
+    public Object sendCommand(String sql) throws SQLException {
+        try {
+            CompiledOp compiledOp = this.compile(sql);
 
-            return this.decodeResult(sql, result, op.getHints());
+            return this.sendCommand(compiledOp);
         } catch (Throwable e) {
-            throw new SQLException(e);
+            throw toSQLException(e);
+        }
+    }
+
+    @Override
+    public Object sendCommand(Op op, byte[][] params) throws SQLException {
+        try {
+            CompiledOp compiledOp = new CompiledOp(op, this.convertCommand(op.getCommand()), params);
+
+            return this.sendCommand(compiledOp);
+        } catch (Throwable e) {
+            throw toSQLException(e);
+        }
+    }
+
+    protected abstract Object sendCommand(CompiledOp compiledOp);
+
+    @Override
+    public CompletableFuture<Object> sendCommandAsync(String sql) {
+        CompiledOp compiledOp;
+        try {
+            compiledOp = this.compile(sql);
+        } catch (Throwable e) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            future.completeExceptionally(new SQLException(e));
+            return future;
+        }
+        return this.sendCommandAsync(compiledOp);
+    }
+
+    /**
+     * Blocks in the calling thread unless overridden by a client that can have several commands in flight.
+     */
+    protected CompletableFuture<Object> sendCommandAsync(CompiledOp compiledOp) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        try {
+            future.complete(this.sendCommand(compiledOp));
+        } catch (Throwable e) {
+            future.completeExceptionally(toSQLException(e));
+        }
+        return future;
+    }
+
+    @Override
+    public int[] executeBatch(List<String> sqls) throws SQLException {
+        List<CompiledOp> compiledOps = new ArrayList<>(sqls.size());
+        for (String sql : sqls) {
+            try {
+                compiledOps.add(this.compile(sql));
+            } catch (Throwable e) {
+                LOGGER.log("cannot parse batch sql `%s`", sql);
+                throw new BatchUpdateException("Cannot parse sql: " + sql, new int[0], e);
+            }
+        }
+        return this.executeCompiledBatch(compiledOps);
+    }
+
+    @Override
+    public int[] executeBatch(Op op, List<byte[][]> paramsList) throws SQLException {
+        ProtocolCommand command;
+        try {
+            command = this.convertCommand(op.getCommand());
+        } catch (Throwable e) {
+            throw new BatchUpdateException(new int[0], e);
+        }
+        List<CompiledOp> compiledOps = new ArrayList<>(paramsList.size());
+        for (byte[][] params : paramsList) {
+            compiledOps.add(new CompiledOp(op, command, params));
+        }
+        return this.executeCompiledBatch(compiledOps);
+    }
+
+    @Override
+    public List<Object> sendPipelined(Op op, List<byte[][]> paramsList) throws SQLException {
+        try {
+            ProtocolCommand command = this.convertCommand(op.getCommand());
+            List<Object> replies = new ArrayList<>(paramsList.size());
+            for (int from = 0; from < paramsList.size(); from += this.maxBatchSize) {
+                int to = Math.min(paramsList.size(), from + this.maxBatchSize);
+                List<CompiledOp> compiledOps = new ArrayList<>(to - from);
+                for (byte[][] params : paramsList.subList(from, to)) {
+                    compiledOps.add(new CompiledOp(op, command, params));
+                }
+                replies.addAll(this.pipeline(compiledOps));
+            }
+            return replies;
+        } catch (Throwable e) {
+            throw toSQLException(e);
+        }
+    }
+
+    /**
+     * Pipeline the ops in chunks of {@code maxBatchSize}, so a huge batch neither buffers every reply
+     * nor holds the connection for one endless write.
+     * <p>
+     * A command rejected by Redis gets {@link Statement#EXECUTE_FAILED} and the batch goes on;
+     * a connection failure stops it, the update counts then cover the chunks sent before.
+     */
+    private int[] executeCompiledBatch(List<CompiledOp> compiledOps) throws SQLException {
+        int[] updateCounts = new int[compiledOps.size()];
+        Throwable firstError = null;
+
+        for (int from = 0; from < compiledOps.size(); from += this.maxBatchSize) {
+            int to = Math.min(compiledOps.size(), from + this.maxBatchSize);
+
+            List<Object> replies;
+            try {
+                replies = this.pipeline(compiledOps.subList(from, to));
+            } catch (Throwable e) {
+                LOGGER.log("batch failed after %s commands.", from);
+                SQLException cause = toSQLException(e);
+                throw new BatchUpdateException("Batch failed after " + from + " commands", cause.getSQLState(),
+                        0, Arrays.copyOf(updateCounts, from), cause);
+            }
+
+            for (int i = from; i < to; i++) {
+                Object reply = replies.get(i - from);
+                if (reply instanceof JedisDataException) {
+                    LOGGER.log("command `%s` failed in batch. error = %s",
+                            compiledOps.get(i).getOp().getOriginSql(), ((JedisDataException) reply).getMessage());
+                    updateCounts[i] = Statement.EXECUTE_FAILED;
+                    if (firstError == null) {
+                        firstError = (Throwable) reply;
+                    }
+                } else {
+                    updateCounts[i] = updateCount(reply);
+                }
+            }
+        }
+
+        if (firstError != null) {
+            throw new BatchUpdateException(firstError.getMessage(), updateCounts, firstError);
         }
+        return updateCounts;
     }
 
-    protected abstract Object sendCommand(Op op);
+    /**
+     * Write all the ops before reading any reply.
+     *
+     * @return one reply per op in the same order, errors replied by Redis are returned as {@link JedisDataException}
+     */
+    protected abstract List<Object> pipeline(List<CompiledOp> compiledOps);
+
+    /**
+     * A cancelled command gets SQLState {@code 57014}, a timed out one a {@link SQLTimeoutException}.
+     */
+    protected static SQLException toSQLException(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CancellationException) {
+                return new SQLException("Statement cancelled", "57014", e);
+            }
+            if (cause instanceof SocketTimeoutException || cause instanceof TimeoutException) {
+                return new SQLTimeoutException("Query timed out", e);
+            }
+        }
+        return new SQLException(e);
+    }
 
-    protected Protocol.Command convertCommand(String commandString) {
-        return Arrays.stream(Protocol.Command.values())
-                .filter(t -> {
-                    String string = t.toString();
-                    return string.equalsIgnoreCase(commandString);
-                })
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException(
-                        String.format("command invalided. commandString = %s", commandString)
-                ));
+    /**
+     * Same as {@code executeUpdate}: the number of values the reply decodes to.
+     */
+    private static int updateCount(Object reply) {
+        if (!(reply instanceof Collection)) {
+            return 1;
+        }
+        int count = 0;
+        for (Object element : (Collection<?>) reply) {
+            count += updateCount(element);
+        }
+        return count;
     }
 
     /**
-     * hint:
-     * -- decoder:jdk
-     * TODO
+     * A {@code SELECT n} statement switches the db of the socket behind the back of {@link #select(int)}:
+     * the clients keeping track of the db route it there instead.
      *
-     * @param sql
-     * @param originResult
-     * @param hints
-     * @return
+     * @return the db of a {@code SELECT n} op, -1 for any other op
+     */
+    protected static int selectedDb(CompiledOp compiledOp) {
+        byte[][] params = compiledOp.getParams();
+        if (!"SELECT".equalsIgnoreCase(compiledOp.getOp().getCommand()) || params.length != 1 || params[0] == null) {
+            return -1;
+        }
+        try {
+            int db = Integer.parseInt(SafeEncoder.encode(params[0]));
+            return db >= 0 ? db : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse the sql and resolve its command, going through the statement cache when it is enabled.
      */
-    protected String[] decodeResult(String sql, Object originResult, List<Hint> hints) throws SQLException {
-        String[] decodedResult;
-        if (originResult == null) {
-            decodedResult = new String[]{null};
-        } else if (originResult.getClass().isArray()) {
-            String decoded = SafeEncoder.encode((byte[]) originResult);
-            decodedResult = Stream.of(decoded)
-                    .toArray(String[]::new);
-        } else if (originResult instanceof Collection) {
-            List<byte[]> convertedList = Utils.convert((Collection<?>) originResult, new ArrayList<>());
-            decodedResult = convertedList.stream()
-                    .map(SafeEncoder::encode)
-                    .toArray(String[]::new);
-        } else {
-            LOGGER.log("cannot decode result. originResult = %s", originResult);
-            decodedResult = Stream.of(originResult.toString())
-                    .toArray(String[]::new);
-        }
-        LOGGER.log("decode success. sql = %s, originResult = %s, decodedResult = %s",
-                sql, originResult, Utils.toList(decodedResult));
-        return decodedResult;
+    protected CompiledOp compile(String sql) {
+        if (this.statementCache == null) {
+            return this.doCompile(sql);
+        }
+        CompiledOp compiledOp = this.statementCache.get(sql);
+        if (compiledOp == null) {
+            compiledOp = this.doCompile(sql);
+            this.statementCache.put(sql, compiledOp);
+        }
+        return compiledOp;
+    }
+
+    private CompiledOp doCompile(String sql) {
+        Op op = Utils.parseSql(sql, null);
+        ProtocolCommand command = this.convertCommand(op.getCommand());
+        return new CompiledOp(op, command, op.encodeParams());
+    }
+
+    /**
+     * @return the statement cache, or null if it is disabled by the {@code statementCache} property
+     */
+    public StatementCache getStatementCache() {
+        return this.statementCache;
+    }
+
+    protected ProtocolCommand convertCommand(String commandString) {
+        return CommandRegistry.lookup(commandString);
     }
 }
@@ -0,0 +1,114 @@
+package com.itmuch.redis.jdbc;
+
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.commands.ProtocolCommand;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.Locale;
+
+/**
+ * Command lookup table, built once when the class is loaded.
+ * <p>
+ * Lookup is case-insensitive and allocation-free for every command in {@link Protocol.Command};
+ * any other token is sent to the server as a {@link RawCommand}.
+ */
+public final class CommandRegistry {
+    private static final String[] NAMES;
+    private static final Protocol.Command[] COMMANDS;
+    private static final int MASK;
+
+    static {
+        Protocol.Command[] values = Protocol.Command.values();
+
+        // open addressing, load factor <= 0.25 keeps probe chains short
+        int capacity = Integer.highestOneBit(values.length * 4 - 1) << 1;
+        NAMES = new String[capacity];
+        COMMANDS = new Protocol.Command[capacity];
+        MASK = capacity - 1;
+
+        for (Protocol.Command command : values) {
+            String name = command.name();
+            int i = hash(name) & MASK;
+            while (NAMES[i] != null) {
+                i = (i + 1) & MASK;
+            }
+            NAMES[i] = name;
+            COMMANDS[i] = command;
+        }
+    }
+
+    private CommandRegistry() {
+    }
+
+    /**
+     * Resolve a command token such as {@code get} or {@code HGETALL}.
+     *
+     * @param commandString command token, in any case
+     * @return the Jedis command, or a raw protocol command if Jedis does not know it
+     */
+    public static ProtocolCommand lookup(String commandString) {
+        Protocol.Command command = find(commandString);
+        if (command != null) {
+            return command;
+        }
+        if (commandString == null || commandString.isEmpty()) {
+            throw new IllegalArgumentException(
+                    String.format("command invalided. commandString = %s", commandString)
+            );
+        }
+        return new RawCommand(commandString);
+    }
+
+    /**
+     * @param commandString command token, in any case
+     * @return the Jedis command, or null if Jedis does not know it
+     */
+    public static Protocol.Command find(String commandString) {
+        if (commandString == null) {
+            return null;
+        }
+        int length = commandString.length();
+        for (int i = hash(commandString) & MASK; NAMES[i] != null; i = (i + 1) & MASK) {
+            String name = NAMES[i];
+            if (name.length() == length && name.regionMatches(true, 0, commandString, 0, length)) {
+                return COMMANDS[i];
+            }
+        }
+        return null;
+    }
+
+    private static int hash(String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            h = 31 * h + c;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * A command that is not part of {@link Protocol.Command}, e.g. one added by a newer server or a module.
+     */
+    public static final class RawCommand implements ProtocolCommand {
+        private final String name;
+        private final byte[] raw;
+
+        public RawCommand(String name) {
+            this.name = name.toUpperCase(Locale.ROOT);
+            this.raw = SafeEncoder.encode(this.name);
+        }
+
+        @Override
+        public byte[] getRaw() {
+            return this.raw;
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+    }
+}
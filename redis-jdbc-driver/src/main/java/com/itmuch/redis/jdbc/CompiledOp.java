@@ -0,0 +1,22 @@
+package com.itmuch.redis.jdbc;
+
+import com.itmuch.redis.jdbc.conf.Op;
+import lombok.Getter;
+import redis.clients.jedis.commands.ProtocolCommand;
+
+/**
+ * An {@link Op} whose command has been resolved and whose params have been encoded,
+ * ready to be written to the wire.
+ */
+@Getter
+public class CompiledOp {
+    private final Op op;
+    private final ProtocolCommand command;
+    private final byte[][] params;
+
+    public CompiledOp(Op op, ProtocolCommand command, byte[][] params) {
+        this.op = op;
+        this.command = command;
+        this.params = params;
+    }
+}
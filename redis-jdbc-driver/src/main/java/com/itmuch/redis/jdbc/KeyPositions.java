@@ -0,0 +1,123 @@
+package com.itmuch.redis.jdbc;
+
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Where the first key of a command is, after the key specs of {@code COMMAND INFO}, so that Redis Cluster
+ * commands go straight to the node owning their slot.
+ * <p>
+ * Positions are indexes in the params, the command name excluded. Most commands start with their key
+ * and are not listed; the commands listed either have no key, have it further, or have it at a position
+ * given by another argument (the {@code movablekeys} commands).
+ */
+public final class KeyPositions {
+    /**
+     * the command has no key
+     */
+    public static final int NO_KEY = -1;
+
+    private static final int NUMKEYS_AT_0 = -2;
+    private static final int NUMKEYS_AT_1 = -3;
+    private static final int AFTER_STREAMS = -4;
+    private static final int AFTER_KEYS = -5;
+    private static final int MEMORY_USAGE = -6;
+    private static final int MIGRATE = -7;
+
+    private static final Map<String, Integer> POSITIONS = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        String[] keyless = {
+                "ACL", "ASKING", "AUTH", "BGREWRITEAOF", "BGSAVE", "CLIENT", "CLUSTER", "COMMAND", "CONFIG",
+                "DBSIZE", "DEBUG", "DISCARD", "ECHO", "EXEC", "FAILOVER", "FLUSHALL", "FLUSHDB", "FUNCTION", "HELLO",
+                "INFO", "KEYS", "LASTSAVE", "LATENCY", "LOLWUT", "MODULE", "MONITOR", "MULTI", "PFSELFTEST", "PING",
+                "PSUBSCRIBE", "PSYNC", "PUBLISH", "PUBSUB", "PUNSUBSCRIBE", "RANDOMKEY", "READONLY", "READWRITE",
+                "REPLCONF", "REPLICAOF", "RESET", "ROLE", "SAVE", "SCAN", "SCRIPT", "SELECT", "SHUTDOWN", "SLAVEOF",
+                "SLOWLOG", "SUBSCRIBE", "SWAPDB", "SYNC", "TIME", "UNSUBSCRIBE", "UNWATCH", "WAIT"
+        };
+        for (String command : keyless) {
+            POSITIONS.put(command, NO_KEY);
+        }
+        // a subcommand or an operation first
+        POSITIONS.put("BITOP", 1);
+        POSITIONS.put("OBJECT", 1);
+        POSITIONS.put("PFDEBUG", 1);
+        POSITIONS.put("XGROUP", 1);
+        POSITIONS.put("XINFO", 1);
+        // timeout, numkeys, key...
+        POSITIONS.put("BLMPOP", 2);
+        POSITIONS.put("BZMPOP", 2);
+        // numkeys, key...
+        for (String command : new String[]{"ZDIFF", "ZINTER", "ZUNION", "ZINTERCARD", "SINTERCARD", "LMPOP", "ZMPOP"}) {
+            POSITIONS.put(command, NUMKEYS_AT_0);
+        }
+        // script, numkeys, key...
+        for (String command : new String[]{"EVAL", "EVALSHA", "EVAL_RO", "EVALSHA_RO", "FCALL", "FCALL_RO"}) {
+            POSITIONS.put(command, NUMKEYS_AT_1);
+        }
+        POSITIONS.put("XREAD", AFTER_STREAMS);
+        POSITIONS.put("XREADGROUP", AFTER_STREAMS);
+        POSITIONS.put("STRALGO", AFTER_KEYS);
+        POSITIONS.put("MEMORY", MEMORY_USAGE);
+        POSITIONS.put("MIGRATE", MIGRATE);
+    }
+
+    private KeyPositions() {
+    }
+
+    /**
+     * @param command the command token, in any case
+     * @param params  the params, the command name excluded
+     * @return the index of the first key in the params, or {@link #NO_KEY}
+     */
+    public static int firstKey(String command, byte[][] params) {
+        Integer position = POSITIONS.get(command);
+        if (position == null) {
+            // the key comes first, also assumed for the commands of modules
+            return params.length > 0 ? 0 : NO_KEY;
+        }
+        switch (position) {
+            case NUMKEYS_AT_0:
+                return numKeys(params, 0);
+            case NUMKEYS_AT_1:
+                return numKeys(params, 1);
+            case AFTER_STREAMS:
+                return after(params, "STREAMS");
+            case AFTER_KEYS:
+                return after(params, "KEYS");
+            case MEMORY_USAGE:
+                // MEMORY USAGE key
+                return params.length > 1 && "USAGE".equalsIgnoreCase(SafeEncoder.encode(params[0])) ? 1 : NO_KEY;
+            case MIGRATE:
+                // MIGRATE host port key|"" db timeout ... [KEYS key...]
+                return params.length > 2 && params[2].length > 0 ? 2 : after(params, "KEYS");
+            default:
+                return position < params.length ? position : NO_KEY;
+        }
+    }
+
+    /**
+     * The keys follow the count at {@code numKeysIndex}.
+     */
+    private static int numKeys(byte[][] params, int numKeysIndex) {
+        if (params.length <= numKeysIndex + 1) {
+            return NO_KEY;
+        }
+        try {
+            return Integer.parseInt(SafeEncoder.encode(params[numKeysIndex])) > 0 ? numKeysIndex + 1 : NO_KEY;
+        } catch (NumberFormatException e) {
+            return NO_KEY;
+        }
+    }
+
+    private static int after(byte[][] params, String option) {
+        for (int i = 0; i + 1 < params.length; i++) {
+            if (option.equalsIgnoreCase(SafeEncoder.encode(params[i]))) {
+                return i + 1;
+            }
+        }
+        return NO_KEY;
+    }
+}
@@ -0,0 +1,37 @@
+package com.itmuch.redis.jdbc;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The commands flagged {@code readonly} by {@code COMMAND INFO}, which a replica can serve.
+ */
+public final class ReadOnlyCommands {
+    private static final Set<String> COMMANDS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        COMMANDS.addAll(Arrays.asList(
+                "BITCOUNT", "BITFIELD_RO", "BITPOS", "DBSIZE", "DUMP", "EVAL_RO", "EVALSHA_RO", "EXISTS", "EXPIRETIME",
+                "FCALL_RO", "GEODIST", "GEOHASH", "GEOPOS", "GEORADIUS_RO", "GEORADIUSBYMEMBER_RO", "GEOSEARCH", "GET",
+                "GETBIT", "GETRANGE", "HEXISTS", "HGET", "HGETALL", "HKEYS", "HLEN", "HMGET", "HRANDFIELD", "HSCAN",
+                "HSTRLEN", "HVALS", "KEYS", "LCS", "LINDEX", "LLEN", "LPOS", "LRANGE", "MEMORY", "MGET", "OBJECT",
+                "PEXPIRETIME", "PFCOUNT", "PTTL", "RANDOMKEY", "SCAN", "SCARD", "SDIFF", "SINTER", "SINTERCARD",
+                "SISMEMBER", "SMEMBERS", "SMISMEMBER", "SRANDMEMBER", "SSCAN", "STRALGO", "STRLEN", "SUBSTR", "SUNION",
+                "TOUCH", "TTL", "TYPE", "XINFO", "XLEN", "XPENDING", "XRANGE", "XREAD", "XREVRANGE", "ZCARD", "ZCOUNT",
+                "ZDIFF", "ZINTER", "ZINTERCARD", "ZLEXCOUNT", "ZMSCORE", "ZRANDMEMBER", "ZRANGE", "ZRANGEBYLEX",
+                "ZRANGEBYSCORE", "ZRANK", "ZREVRANGE", "ZREVRANGEBYLEX", "ZREVRANGEBYSCORE", "ZREVRANK", "ZSCAN",
+                "ZSCORE", "ZUNION"
+        ));
+    }
+
+    private ReadOnlyCommands() {
+    }
+
+    /**
+     * @param command the command token, in any case
+     */
+    public static boolean contains(String command) {
+        return COMMANDS.contains(command);
+    }
+}
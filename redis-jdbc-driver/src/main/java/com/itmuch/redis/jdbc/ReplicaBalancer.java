@@ -0,0 +1,98 @@
+package com.itmuch.redis.jdbc;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the replica serving a read, after the {@code replicaSelection} property.
+ *
+ * @param <N> a replica, compared by identity, e.g. its socket pool
+ */
+public class ReplicaBalancer<N> {
+    private final Strategy strategy;
+    private final AtomicInteger next = new AtomicInteger();
+    /**
+     * moving average of the read time of each replica, in nanoseconds
+     */
+    private final Map<N, AtomicLong> latencies = new ConcurrentHashMap<>();
+
+    public ReplicaBalancer(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
+    /**
+     * @param replicas not empty
+     */
+    public N choose(List<N> replicas) {
+        if (replicas.size() == 1) {
+            return replicas.get(0);
+        }
+        switch (this.strategy) {
+            case ROUND_ROBIN:
+                return replicas.get(Math.floorMod(this.next.getAndIncrement(), replicas.size()));
+            case LATENCY:
+                // the faster of two replicas drawn at random: always taking the fastest one would send it all
+                // the reads at once, while this spreads them and still keeps the slowest replica out of them
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int first = random.nextInt(replicas.size());
+                int second = random.nextInt(replicas.size() - 1);
+                if (second >= first) {
+                    second++;
+                }
+                // a replica never read from yet counts as the fastest, so that each gets measured
+                N firstReplica = replicas.get(first);
+                N secondReplica = replicas.get(second);
+                return this.latencyOf(secondReplica) < this.latencyOf(firstReplica) ? secondReplica : firstReplica;
+            default:
+                return replicas.get(ThreadLocalRandom.current().nextInt(replicas.size()));
+        }
+    }
+
+    /**
+     * Record the time a read took on the replica, for {@link Strategy#LATENCY}.
+     */
+    public void record(N replica, long nanos) {
+        if (this.strategy != Strategy.LATENCY) {
+            return;
+        }
+        this.latencies.computeIfAbsent(replica, r -> new AtomicLong())
+                .accumulateAndGet(nanos, (average, sample) -> average == 0 ? sample : (average * 7 + sample) / 8);
+    }
+
+    /**
+     * Forget the latency of a replica that failed, it is measured again from scratch.
+     */
+    public void forget(N replica) {
+        this.latencies.remove(replica);
+    }
+
+    /**
+     * @return the moving average of the reads of the replica in nanoseconds, 0 if there was none
+     */
+    public long latencyOf(N replica) {
+        AtomicLong latency = this.latencies.get(replica);
+        return latency == null ? 0 : latency.get();
+    }
+
+    public enum Strategy {
+        RANDOM, ROUND_ROBIN, LATENCY;
+
+        /**
+         * @param name {@code random}, {@code roundRobin} or {@code latency}, in any case
+         */
+        public static Strategy of(String name) {
+            String normalized = name.replace("_", "").replace("-", "").toLowerCase(Locale.ROOT);
+            for (Strategy strategy : values()) {
+                if (strategy.name().replace("_", "").toLowerCase(Locale.ROOT).equals(normalized)) {
+                    return strategy;
+                }
+            }
+            throw new IllegalArgumentException("replicaSelection must be random, roundRobin or latency. replicaSelection = " + name);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.itmuch.redis.jdbc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of {@link CompiledOp} keyed on the raw SQL text.
+ * <p>
+ * The key space is split into segments, each an access-ordered {@link LinkedHashMap} with its own lock,
+ * so threads working on different statements rarely contend. Eviction is LRU per segment.
+ */
+public class StatementCache {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public StatementCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("statementCacheSize must be positive. statementCacheSize = " + maxSize);
+        }
+        int segmentCount = Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxSize));
+        int segmentSize = (maxSize + segmentCount - 1) / segmentCount;
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = new Segment(segmentSize);
+        }
+        this.segmentMask = segmentCount - 1;
+        this.maxSize = maxSize;
+    }
+
+    public CompiledOp get(String sql) {
+        Segment segment = this.segmentFor(sql);
+        CompiledOp compiledOp;
+        synchronized (segment) {
+            compiledOp = segment.get(sql);
+        }
+        if (compiledOp == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return compiledOp;
+    }
+
+    public void put(String sql, CompiledOp compiledOp) {
+        Segment segment = this.segmentFor(sql);
+        synchronized (segment) {
+            segment.put(sql, compiledOp);
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    private Segment segmentFor(String sql) {
+        int h = sql.hashCode();
+        return segments[(h ^ (h >>> 16)) & segmentMask];
+    }
+
+    private static class Segment extends LinkedHashMap<String, CompiledOp> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledOp> eldest) {
+            return this.size() > capacity;
+        }
+    }
+}
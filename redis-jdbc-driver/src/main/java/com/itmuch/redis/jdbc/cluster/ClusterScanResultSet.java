@@ -0,0 +1,136 @@
+package com.itmuch.redis.jdbc.cluster;
+
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.RedisScanResultSet;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Streams a {@code SCAN}, or a {@code KEYS}, over every master of a Redis Cluster: each master keeps its own
+ * SCAN cursor, the pages of the masters are fetched in parallel and handed out to {@link #next()} as they arrive.
+ * <p>
+ * At most {@link #MAX_IN_FLIGHT} pages are requested or waiting to be read at a time, one per master, so memory
+ * stays bounded by {@code MAX_IN_FLIGHT} pages of {@code fetchSize} keys however many masters there are.
+ * A master gets its next page requested as soon as its previous one is handed out.
+ */
+class ClusterScanResultSet extends RedisScanResultSet {
+    private final static Logger LOGGER = new Logger(ClusterScanResultSet.class);
+
+    static final int MAX_IN_FLIGHT = 8;
+
+    private final CompletionService<Page> pages;
+    /**
+     * masters whose next page is not requested yet
+     */
+    private final Deque<NodeCursor> waiting = new ArrayDeque<>();
+    private int inFlight = 0;
+
+    /**
+     * @param template a SCAN from cursor 0, as prepared for a single node
+     * @param masters  the pool of each master, by node key
+     */
+    ClusterScanResultSet(RedisScanResultSet template, Map<String, JedisPool> masters, ExecutorService executor)
+            throws SQLException {
+        super(template);
+        this.pages = new ExecutorCompletionService<>(executor);
+        for (Map.Entry<String, JedisPool> master : masters.entrySet()) {
+            this.waiting.add(new NodeCursor(master.getKey(), master.getValue(), this.getScanParams().clone()));
+        }
+        if (this.waiting.isEmpty()) {
+            this.finish();
+        }
+        this.requestPages();
+    }
+
+    @Override
+    protected List<?> scanPage() throws SQLException {
+        Page page;
+        try {
+            page = this.pages.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while scanning the cluster", e);
+        } catch (ExecutionException e) {
+            LOGGER.log("cannot scan cluster node: %s", e.getCause());
+            throw new SQLException("cannot scan cluster node", e.getCause());
+        }
+        this.inFlight--;
+        LOGGER.log("scan page of %s elements from %s", page.elements.size(), page.node.node);
+
+        if (!page.last) {
+            this.waiting.add(page.node);
+        }
+        this.requestPages();
+        if (this.inFlight == 0) {
+            this.finish();
+        }
+        return page.elements;
+    }
+
+    private void requestPages() {
+        while (this.inFlight < MAX_IN_FLIGHT && !this.waiting.isEmpty()) {
+            NodeCursor node = this.waiting.poll();
+            this.pages.submit(node::nextPage);
+            this.inFlight++;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        // the pages in flight still complete, giving their connections back
+        this.waiting.clear();
+        super.close();
+    }
+
+    /**
+     * The SCAN of one master; a single page of it is in flight at a time.
+     */
+    private static class NodeCursor {
+        private final String node;
+        private final JedisPool pool;
+        /**
+         * the cursor first
+         */
+        private final byte[][] params;
+
+        NodeCursor(String node, JedisPool pool, byte[][] params) {
+            this.node = node;
+            this.pool = pool;
+            this.params = params;
+        }
+
+        Page nextPage() {
+            List<?> reply;
+            try (Jedis jedis = this.pool.getResource()) {
+                // [cursor, [key...]]
+                reply = (List<?>) jedis.sendCommand(Protocol.Command.SCAN, this.params);
+            }
+            byte[] cursor = (byte[]) reply.get(0);
+            this.params[0] = cursor;
+            return new Page(this, (List<?>) reply.get(1), cursor.length == 1 && cursor[0] == '0');
+        }
+    }
+
+    private static class Page {
+        private final NodeCursor node;
+        private final List<?> elements;
+        private final boolean last;
+
+        Page(NodeCursor node, List<?> elements, boolean last) {
+            this.node = node;
+            this.elements = elements;
+            this.last = last;
+        }
+    }
+}
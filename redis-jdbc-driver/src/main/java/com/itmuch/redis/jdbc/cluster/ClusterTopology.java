@@ -0,0 +1,417 @@
+package com.itmuch.redis.jdbc.cluster;
+
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.ReplicaBalancer;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisClusterMaxAttemptsException;
+import redis.clients.jedis.exceptions.JedisClusterOperationException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The slot map of a cluster, shared by the connections of a {@link SlotAwareJedisCluster}, and the routing of
+ * commands by slot.
+ * <p>
+ * Jedis reloads the whole slot map on every MOVED, so during a resharding each redirected command of each
+ * connection sends {@code CLUSTER SLOTS}. Here a MOVED reassigns only its slot, in place, and an ASK is followed
+ * to its node without touching the map. A full refresh happens on a connection failure and periodically in the
+ * background, with a jitter so that clients started together do not refresh together; concurrent refreshes are
+ * coalesced into one, the other callers waiting for its result. A connection failure within
+ * {@code minRefreshIntervalMillis} of the last reload does not reload again: while a node is down, every command
+ * routed to it fails, and the map just reloaded is as good as a new one.
+ * <p>
+ * The replicas of each slot are kept too, for the reads of read-only connections, see
+ * {@link #executeOnReplica(int, ReplicaBalancer, Function)}.
+ */
+public class ClusterTopology {
+    private final static Logger LOGGER = new Logger(ClusterTopology.class);
+
+    static final int SLOT_COUNT = 16384;
+
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "redis-jdbc-topology-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SlotAwareJedisCluster jedisCluster;
+    private final int maxAttempts;
+    private final long refreshPeriodMillis;
+    private final long minRefreshIntervalNanos;
+
+    /**
+     * the master of each slot, null if no node serves it
+     */
+    private final AtomicReferenceArray<JedisPool> slots = new AtomicReferenceArray<>(SLOT_COUNT);
+    /**
+     * the replicas of each slot, empty if it has none
+     */
+    private final AtomicReferenceArray<List<JedisPool>> replicas = new AtomicReferenceArray<>(SLOT_COUNT);
+    /**
+     * the replica connections already sent {@code READONLY}, forgotten once the pool drops them
+     */
+    private final Map<Jedis, Boolean> readOnlyConnections = Collections.synchronizedMap(new WeakHashMap<>());
+    /**
+     * node key ({@code host:port}) of each pool
+     */
+    private final Map<JedisPool, String> nodeKeys = Collections.synchronizedMap(new IdentityHashMap<>());
+    /**
+     * the refresh in progress, joined by the callers asking for another one meanwhile
+     */
+    private final AtomicReference<CompletableFuture<Void>> refreshing = new AtomicReference<>();
+    /**
+     * {@link System#nanoTime()} at the end of the last reload, successful or not
+     */
+    private volatile long lastReloadNanos;
+    private volatile ScheduledFuture<?> periodicRefresh;
+    private volatile boolean closed = false;
+
+    private final LongAdder movedRedirects = new LongAdder();
+    private final LongAdder askRedirects = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder coalescedRefreshes = new LongAdder();
+    private final LongAdder skippedRefreshes = new LongAdder();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder replicaFallbacks = new LongAdder();
+
+    /**
+     * @param refreshPeriodMillis      mean period of the background refresh, 0 for none
+     * @param minRefreshIntervalMillis time after a reload during which a connection failure does not reload again
+     */
+    ClusterTopology(SlotAwareJedisCluster jedisCluster, int maxAttempts, long refreshPeriodMillis,
+                    long minRefreshIntervalMillis) {
+        this.jedisCluster = jedisCluster;
+        this.maxAttempts = maxAttempts;
+        this.refreshPeriodMillis = refreshPeriodMillis;
+        this.minRefreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minRefreshIntervalMillis);
+        this.refresh();
+        this.scheduleRefresh();
+    }
+
+    /**
+     * Run the command on a connection to the master of the slot, following MOVED and ASK redirects,
+     * refreshing the slot map after a connection failure unless it was just refreshed, up to {@code maxAttempts} times.
+     */
+    public <T> T execute(int slot, Function<Jedis, T> command) {
+        HostAndPort askTarget = null;
+        JedisException lastFailure = null;
+        for (int attempt = 0; attempt < this.maxAttempts; attempt++) {
+            JedisPool pool = askTarget != null ? this.poolOf(askTarget) : this.poolOf(slot);
+            try (Jedis jedis = pool.getResource()) {
+                if (askTarget != null) {
+                    jedis.asking();
+                }
+                return command.apply(jedis);
+            } catch (JedisRedirectionException e) {
+                askTarget = this.redirected(e);
+                lastFailure = e;
+            } catch (JedisConnectionException e) {
+                LOGGER.log("connection failure on slot %s: %s", slot, e);
+                askTarget = null;
+                lastFailure = e;
+                this.refreshIfDue();
+            }
+        }
+        throw new JedisClusterMaxAttemptsException("No more cluster attempts left.", lastFailure);
+    }
+
+    /**
+     * Run a read-only command on a replica of the slot, chosen by the balancer, in {@code READONLY} mode.
+     * <p>
+     * The master runs it instead, through {@link #execute(int, Function)}, if the slot has no replica, if the
+     * replica cannot be reached, or if it redirects: the replica then serves another master than the slot map
+     * says, so the slot is read from its master until the next refresh.
+     */
+    public <T> T executeOnReplica(int slot, ReplicaBalancer<JedisPool> balancer, Function<Jedis, T> command) {
+        List<JedisPool> slotReplicas = this.replicas.get(slot);
+        if (slotReplicas == null || slotReplicas.isEmpty()) {
+            return this.execute(slot, command);
+        }
+        JedisPool replica = balancer.choose(slotReplicas);
+        long start = System.nanoTime();
+        try (Jedis jedis = replica.getResource()) {
+            this.readOnly(jedis);
+            T reply = command.apply(jedis);
+            balancer.record(replica, System.nanoTime() - start);
+            this.replicaReads.increment();
+            return reply;
+        } catch (JedisRedirectionException e) {
+            LOGGER.log("replica %s redirected slot %s: %s", this.nodeKeys.get(replica), slot, e.getMessage());
+            this.replicaRedirected(slot);
+        } catch (JedisConnectionException e) {
+            LOGGER.log("connection failure on replica %s: %s", this.nodeKeys.get(replica), e);
+            balancer.forget(replica);
+        }
+        this.replicaFallbacks.increment();
+        return this.execute(slot, command);
+    }
+
+    /**
+     * Send {@code READONLY} on a replica connection unless it already was, so that it serves reads of its slots.
+     */
+    void readOnly(Jedis jedis) {
+        if (!this.readOnlyConnections.containsKey(jedis)) {
+            jedis.sendCommand(Protocol.Command.READONLY);
+            this.readOnlyConnections.put(jedis, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * A replica redirected a read of the slot: read it from its master until the next refresh.
+     */
+    void replicaRedirected(int slot) {
+        this.replicas.set(slot, Collections.emptyList());
+    }
+
+    /**
+     * @return the pools of the replicas of the slot, empty if it has none
+     */
+    public List<JedisPool> replicasOf(int slot) {
+        List<JedisPool> slotReplicas = this.replicas.get(slot);
+        return slotReplicas == null ? Collections.emptyList() : slotReplicas;
+    }
+
+    /**
+     * Take a redirect into account: a MOVED reassigns its slot in place, an ASK is only counted.
+     *
+     * @return the node to ask for an ASK, null for a MOVED
+     */
+    HostAndPort redirected(JedisRedirectionException redirect) {
+        if (redirect instanceof JedisAskDataException) {
+            this.askRedirects.increment();
+            return redirect.getTargetNode();
+        }
+        if (redirect instanceof JedisMovedDataException) {
+            this.movedRedirects.increment();
+            this.slots.set(redirect.getSlot(), this.poolOf(redirect.getTargetNode()));
+            return null;
+        }
+        throw redirect;
+    }
+
+    /**
+     * @return the pool of the master of the slot, the slot map being refreshed first if no node serves the slot,
+     * unless it was just refreshed
+     */
+    public JedisPool poolOf(int slot) {
+        JedisPool pool = this.slots.get(slot);
+        if (pool == null) {
+            this.refreshIfDue();
+            pool = this.slots.get(slot);
+            if (pool == null) {
+                throw new JedisClusterOperationException("No node serves slot " + slot);
+            }
+        }
+        return pool;
+    }
+
+    private JedisPool poolOf(HostAndPort node) {
+        JedisPool pool = this.jedisCluster.poolOf(node);
+        this.nodeKeys.putIfAbsent(pool, node.toString());
+        return pool;
+    }
+
+    /**
+     * @return the pool of each master, by node key, in the order of their first slot
+     */
+    public Map<String, JedisPool> masters() {
+        Map<String, JedisPool> masters = new LinkedHashMap<>();
+        JedisPool previous = null;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            JedisPool pool = this.slots.get(slot);
+            if (pool != null && pool != previous) {
+                masters.putIfAbsent(this.nodeKeys.get(pool), pool);
+                previous = pool;
+            }
+        }
+        return masters;
+    }
+
+    /**
+     * Reload the slot map with {@code CLUSTER SLOTS}; if a reload is already in progress, wait for it instead.
+     */
+    public void refresh() {
+        CompletableFuture<Void> refresh = new CompletableFuture<>();
+        while (!this.refreshing.compareAndSet(null, refresh)) {
+            CompletableFuture<Void> inProgress = this.refreshing.get();
+            if (inProgress != null) {
+                this.coalescedRefreshes.increment();
+                try {
+                    inProgress.join();
+                    return;
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        try {
+            this.reload();
+            refresh.complete(null);
+        } catch (RuntimeException e) {
+            refresh.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.lastReloadNanos = System.nanoTime();
+            this.refreshing.set(null);
+        }
+    }
+
+    /**
+     * Refresh the slot map after a failure, unless the last reload ended less than {@code minRefreshIntervalMillis}
+     * ago: the current map is kept then. A reload in progress is waited for all the same.
+     */
+    void refreshIfDue() {
+        if (this.refreshing.get() == null && System.nanoTime() - this.lastReloadNanos < this.minRefreshIntervalNanos) {
+            this.skippedRefreshes.increment();
+            return;
+        }
+        this.refresh();
+    }
+
+    private void reload() {
+        List<JedisPool> nodes = new ArrayList<>(this.jedisCluster.getClusterNodes().values());
+        Collections.shuffle(nodes);
+        JedisException lastFailure = null;
+        for (JedisPool node : nodes) {
+            List<Object> ranges;
+            try (Jedis jedis = node.getResource()) {
+                ranges = jedis.clusterSlots();
+            } catch (JedisException e) {
+                lastFailure = e;
+                continue;
+            }
+
+            JedisPool[] masters = new JedisPool[SLOT_COUNT];
+            List<List<JedisPool>> slotReplicas = new ArrayList<>(Collections.nCopies(SLOT_COUNT, Collections.emptyList()));
+            for (Object range : ranges) {
+                // [start, end, [host, port, id], replica...]
+                List<?> slotInfo = (List<?>) range;
+                JedisPool pool = this.poolOf(nodeOf(slotInfo.get(2)));
+                List<JedisPool> rangeReplicas = new ArrayList<>(slotInfo.size() - 3);
+                for (Object replica : slotInfo.subList(3, slotInfo.size())) {
+                    rangeReplicas.add(this.poolOf(nodeOf(replica)));
+                }
+                List<JedisPool> unmodifiableReplicas = Collections.unmodifiableList(rangeReplicas);
+                int end = ((Long) slotInfo.get(1)).intValue();
+                for (int slot = ((Long) slotInfo.get(0)).intValue(); slot <= end; slot++) {
+                    masters[slot] = pool;
+                    slotReplicas.set(slot, unmodifiableReplicas);
+                }
+            }
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                this.slots.set(slot, masters[slot]);
+                this.replicas.set(slot, slotReplicas.get(slot));
+            }
+            this.refreshes.increment();
+            LOGGER.log("slot map refreshed, %s ranges", ranges.size());
+            return;
+        }
+        throw new JedisClusterOperationException("Cannot refresh the slot map, no node answered", lastFailure);
+    }
+
+    /**
+     * @param node {@code [host, port, id]} in a {@code CLUSTER SLOTS} reply
+     */
+    private static HostAndPort nodeOf(Object node) {
+        List<?> hostAndPort = (List<?>) node;
+        return new HostAndPort(SafeEncoder.encode((byte[]) hostAndPort.get(0)), ((Long) hostAndPort.get(1)).intValue());
+    }
+
+    /**
+     * The next background refresh in 75% to 125% of the period.
+     */
+    private void scheduleRefresh() {
+        if (this.refreshPeriodMillis <= 0 || this.closed) {
+            return;
+        }
+        long delay = (long) (this.refreshPeriodMillis * (0.75 + ThreadLocalRandom.current().nextDouble() / 2));
+        this.periodicRefresh = REFRESHER.schedule(() -> {
+            try {
+                this.refresh();
+            } catch (RuntimeException e) {
+                LOGGER.log("background refresh of the slot map failed: %s", e);
+            }
+            this.scheduleRefresh();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    void close() {
+        this.closed = true;
+        ScheduledFuture<?> periodicRefresh = this.periodicRefresh;
+        if (periodicRefresh != null) {
+            periodicRefresh.cancel(false);
+        }
+    }
+
+    /**
+     * @return the MOVED replies, each of which reassigned one slot
+     */
+    public long getMovedRedirects() {
+        return this.movedRedirects.sum();
+    }
+
+    public long getAskRedirects() {
+        return this.askRedirects.sum();
+    }
+
+    /**
+     * @return the reloads of the whole slot map
+     */
+    public long getRefreshes() {
+        return this.refreshes.sum();
+    }
+
+    /**
+     * @return the refreshes asked for while another one was in progress, which they waited for instead
+     */
+    public long getCoalescedRefreshes() {
+        return this.coalescedRefreshes.sum();
+    }
+
+    /**
+     * @return the refreshes asked for after a failure that kept the map of a reload just done
+     */
+    public long getSkippedRefreshes() {
+        return this.skippedRefreshes.sum();
+    }
+
+    /**
+     * @return the reads served by a replica
+     */
+    public long getReplicaReads() {
+        return this.replicaReads.sum();
+    }
+
+    /**
+     * @return the reads meant for a replica that its master served instead, the replica having failed or redirected
+     */
+    public long getReplicaFallbacks() {
+        return this.replicaFallbacks.sum();
+    }
+}
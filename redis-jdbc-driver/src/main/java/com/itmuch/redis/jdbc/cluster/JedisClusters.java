@@ -0,0 +1,73 @@
+package com.itmuch.redis.jdbc.cluster;
+
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.conf.RedisClusterConnectionInfo;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * The cluster clients of {@link RedisClusterDriver}, one per seed nodes and credentials, shared by the connections:
+ * the slot map is discovered once and each node has a single socket pool, whatever the number of connections.
+ * <p>
+ * A cluster client is created by the first connection, with that connection's pool properties, and closed
+ * when the last connection using it is closed.
+ */
+class JedisClusters {
+    private final static Logger LOGGER = new Logger(JedisClusters.class);
+
+    private static final ConcurrentMap<List<Object>, SlotAwareJedisCluster> CLUSTERS = new ConcurrentHashMap<>();
+
+    private JedisClusters() {
+    }
+
+    /**
+     * @return a cluster client to {@link SlotAwareJedisCluster#close() close} once the connection is closed
+     */
+    static SlotAwareJedisCluster acquire(RedisClusterConnectionInfo info) {
+        List<Object> key = Arrays.asList(
+                info.getNodes().stream().map(HostAndPort::toString).sorted().collect(Collectors.toList()),
+                info.getUsername(), info.getPassword(), info.getTimeout(), info.getMaxAttempts()
+        );
+        while (true) {
+            SlotAwareJedisCluster cluster = CLUSTERS.computeIfAbsent(key, k -> create(info, k));
+            if (cluster.retain()) {
+                return cluster;
+            }
+            // closed by its last connection meanwhile
+            CLUSTERS.remove(key, cluster);
+        }
+    }
+
+    private static SlotAwareJedisCluster create(RedisClusterConnectionInfo info, List<Object> key) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(info.getPoolMaxTotal());
+        poolConfig.setMaxIdle(info.getPoolMaxIdle());
+        poolConfig.setMinIdle(info.getPoolMinIdle());
+        poolConfig.setMaxWaitMillis(info.getPoolMaxWaitMillis());
+
+        LOGGER.log("create cluster client for %s, maxTotal = %s per node", info.getNodes(), info.getPoolMaxTotal());
+        SlotAwareJedisCluster cluster = new SlotAwareJedisCluster(
+                info.getNodes(),
+                info.getTimeout(),
+                info.getTimeout(),
+                info.getMaxAttempts(),
+                info.getUsername(),
+                info.getPassword(),
+                null,
+                poolConfig,
+                info.getTopologyRefreshPeriodMillis(),
+                info.getTopologyMinRefreshIntervalMillis()
+        );
+        cluster.onLastClose(() -> {
+            LOGGER.log("close cluster client for %s", info.getNodes());
+            CLUSTERS.remove(key, cluster);
+        });
+        return cluster;
+    }
+}
@@ -1,56 +1,536 @@
 package com.itmuch.redis.jdbc.cluster;
 
 import com.itmuch.redis.jdbc.AbstractRedisClient;
+import com.itmuch.redis.jdbc.CompiledOp;
+import com.itmuch.redis.jdbc.KeyPositions;
+import com.itmuch.redis.jdbc.ReadOnlyCommands;
+import com.itmuch.redis.jdbc.RedisScanResultSet;
+import com.itmuch.redis.jdbc.ReplicaBalancer;
+import com.itmuch.redis.jdbc.conf.RedisClusterConnectionInfo;
 import com.itmuch.redis.jdbc.conf.Hint;
 import com.itmuch.redis.jdbc.conf.Op;
-import lombok.RequiredArgsConstructor;
-import redis.clients.jedis.JedisCluster;
-import redis.clients.jedis.Protocol;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.commands.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
 
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-@RequiredArgsConstructor
+/**
+ * A connection to a cluster, routing each command to the node of its slot through the shared
+ * {@link SlotAwareJedisCluster}.
+ * <p>
+ * The sockets are borrowed per command from the pools of the nodes, several at once for the commands run on every
+ * master, so there is no socket of the connection to bound or to close: {@code Statement.setQueryTimeout} is
+ * rejected and {@code Statement.cancel} is not supported, the {@code timeout} property bounding every read.
+ */
 public class JedisRedisClusterClient extends AbstractRedisClient {
-    private final JedisCluster jedisCluster;
+    private static final byte[] START_CURSOR = SafeEncoder.encode("0");
+
+    /**
+     * keyless commands about the keyspace, run on every master, see {@link #broadcast(CompiledOp)}
+     */
+    private static final Set<String> BROADCAST_COMMANDS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    /**
+     * multi-key commands split by slot, with the distance between two keys, see {@link #splitBySlot(CompiledOp, int)}
+     */
+    private static final Map<String, Integer> MULTI_KEY_STEPS = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        BROADCAST_COMMANDS.addAll(Arrays.asList("DBSIZE", "KEYS", "SCAN", "INFO", "FLUSHDB", "FLUSHALL"));
+        for (String command : new String[]{"MGET", "DEL", "UNLINK", "EXISTS", "TOUCH"}) {
+            MULTI_KEY_STEPS.put(command, 1);
+        }
+        MULTI_KEY_STEPS.put("MSET", 2);
+    }
+
+    /**
+     * the nodes of a scatter-gather are called at once, shared by all the cluster connections
+     */
+    private static final ExecutorService FAN_OUT = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "redis-jdbc-fan-out-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final SlotAwareJedisCluster jedisCluster;
+    /**
+     * slot map shared by the connections to the cluster
+     */
+    private final ClusterTopology topology;
+    /**
+     * picks the replica serving a read of a read-only connection
+     */
+    private final ReplicaBalancer<JedisPool> replicaBalancer;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean readOnly = false;
+
+    public JedisRedisClusterClient(SlotAwareJedisCluster jedisCluster, RedisClusterConnectionInfo connectionInfo) {
+        super(connectionInfo);
+        this.jedisCluster = jedisCluster;
+        this.topology = jedisCluster.getTopology();
+        this.replicaBalancer = new ReplicaBalancer<>(connectionInfo.getReplicaSelection());
+    }
 
     @Override
-    protected Object sendCommand(Op op) {
+    protected Object sendCommand(CompiledOp compiledOp) {
+        Op op = compiledOp.getOp();
         String rawSql = op.getOriginSql();
-        String commandString = op.getCommand();
-        String[] params = op.getParams();
-        List<Hint> hints = op.getHints();
+        ProtocolCommand command = compiledOp.getCommand();
+        byte[][] params = compiledOp.getParams();
 
         try {
-            Protocol.Command command = this.convertCommand(commandString);
+            if (sampleKey(op.getHints()) == null) {
+                if (BROADCAST_COMMANDS.contains(op.getCommand())) {
+                    return this.broadcast(compiledOp);
+                }
+                Integer keyStep = MULTI_KEY_STEPS.get(op.getCommand());
+                if (keyStep != null && params.length > keyStep && params.length % keyStep == 0) {
+                    return this.splitBySlot(compiledOp, keyStep);
+                }
+            }
+            // a keyless command has no slot to follow, the master of slot 0 answers
+            int slot = slotOf(compiledOp);
+            if (this.readsReplica(compiledOp)) {
+                return this.topology.executeOnReplica(slot, this.replicaBalancer, jedis -> jedis.sendCommand(command, params));
+            }
+            return this.topology.execute(slot, jedis -> jedis.sendCommand(command, params));
+        } catch (RuntimeException e) {
+            LOGGER.warn("command `%s` cannot execute.", rawSql, e);
+            throw new RuntimeException(String.format("command `%s` cannot execute.", rawSql), e);
+        }
+    }
+
+    /**
+     * Run a keyless command on every master at once and merge the replies: DBSIZE counts are summed,
+     * KEYS and SCAN keys concatenated, INFO gives one row per node prefixed by {@code node:host:port},
+     * FLUSHDB and FLUSHALL reply OK once all masters did.
+     * <p>
+     * SCAN iterates each master to the end from cursor 0, the merged reply then has cursor 0;
+     * see {@code streamingScan} to page through a large keyspace instead.
+     */
+    private Object broadcast(CompiledOp compiledOp) {
+        String name = compiledOp.getOp().getCommand();
+        ProtocolCommand command = compiledOp.getCommand();
+        byte[][] params = compiledOp.getParams();
+        boolean scan = "SCAN".equalsIgnoreCase(name);
+        if (scan && (params.length == 0 || !isStartCursor(params[0]))) {
+            throw new RuntimeException("SCAN on Redis Cluster runs over all masters from cursor 0");
+        }
+
+        Map<String, JedisPool> masters = this.topology.masters();
+        List<Callable<Object>> tasks = new ArrayList<>(masters.size());
+        for (JedisPool pool : masters.values()) {
+            tasks.add(() -> {
+                try (Jedis jedis = pool.getResource()) {
+                    return scan ? scanAll(jedis, command, params) : jedis.sendCommand(command, params);
+                }
+            });
+        }
+        return mergeBroadcast(name, masters.keySet(), fanOut(tasks));
+    }
+
+    /**
+     * @param nodes   the masters, {@code host:port}
+     * @param replies the reply of each master, in the order of the nodes; a SCAN reply being the keys of all
+     *                its pages
+     * @return the reply of the command on the whole cluster, see {@link #broadcast(CompiledOp)}
+     */
+    static Object mergeBroadcast(String name, Collection<String> nodes, List<Object> replies) {
+        if ("DBSIZE".equalsIgnoreCase(name)) {
+            long sum = 0;
+            for (Object reply : replies) {
+                sum += (Long) reply;
+            }
+            return sum;
+        }
+        if ("KEYS".equalsIgnoreCase(name)) {
+            List<Object> keys = new ArrayList<>();
+            for (Object reply : replies) {
+                keys.addAll((List<?>) reply);
+            }
+            return keys;
+        }
+        if ("SCAN".equalsIgnoreCase(name)) {
+            List<Object> keys = new ArrayList<>();
+            for (Object reply : replies) {
+                keys.addAll((List<?>) reply);
+            }
+            return Arrays.asList(START_CURSOR, keys);
+        }
+        if ("INFO".equalsIgnoreCase(name)) {
+            List<Object> rows = new ArrayList<>(replies.size());
+            Iterator<String> nodeIterator = nodes.iterator();
+            for (Object reply : replies) {
+                rows.add(SafeEncoder.encode("node:" + nodeIterator.next() + "\r\n" + SafeEncoder.encode((byte[]) reply)));
+            }
+            return rows;
+        }
+        return replies.get(0);
+    }
+
+    /**
+     * Every key of one master, SCAN page after page.
+     */
+    private static List<Object> scanAll(Jedis jedis, ProtocolCommand command, byte[][] params) {
+        byte[][] pageParams = params.clone();
+        List<Object> keys = new ArrayList<>();
+        do {
+            // [cursor, [key...]]
+            List<?> reply = (List<?>) jedis.sendCommand(command, pageParams);
+            pageParams[0] = (byte[]) reply.get(0);
+            keys.addAll((List<?>) reply.get(1));
+        } while (!isStartCursor(pageParams[0]));
+        return keys;
+    }
+
+    private static boolean isStartCursor(byte[] cursor) {
+        return cursor.length == 1 && cursor[0] == '0';
+    }
+
+    /**
+     * Split a multi-key command whose keys span several slots into one command per slot, pipelined on
+     * each master at once, then reassemble the replies: MGET values in the order of the keys, the counts
+     * of DEL, UNLINK, EXISTS and TOUCH summed, OK for MSET. MSET is then no longer atomic across slots.
+     */
+    private Object splitBySlot(CompiledOp compiledOp, int keyStep) {
+        byte[][] params = compiledOp.getParams();
+        Map<Integer, List<Integer>> keyIndexesBySlot = keyIndexesBySlot(params, keyStep);
+        if (keyIndexesBySlot.size() == 1) {
+            int slot = keyIndexesBySlot.keySet().iterator().next();
+            if (this.readsReplica(compiledOp)) {
+                return this.topology.executeOnReplica(slot, this.replicaBalancer, jedis -> jedis.sendCommand(compiledOp.getCommand(), params));
+            }
+            return this.topology.execute(slot, jedis -> jedis.sendCommand(compiledOp.getCommand(), params));
+        }
+
+        List<CompiledOp> slotOps = new ArrayList<>(keyIndexesBySlot.size());
+        for (byte[][] slotParams : splitParams(params, keyStep, keyIndexesBySlot)) {
+            slotOps.add(new CompiledOp(compiledOp.getOp(), compiledOp.getCommand(), slotParams));
+        }
+        List<Object> replies = this.pipeline(slotOps);
+        for (Object reply : replies) {
+            if (reply instanceof JedisDataException) {
+                throw (JedisDataException) reply;
+            }
+        }
+        return mergeSlotReplies(compiledOp.getOp().getCommand(), params.length, keyIndexesBySlot, replies);
+    }
 
-            String sampleKey = hints.stream()
-                    .filter(hint -> Objects.equals(hint.getKey(), Hint.HINT_KEY_SAMPLE_KEY))
-                    .findFirst()
-                    .map(Hint::getValue)
-                    .orElse(null);
+    /**
+     * @param keyStep the distance between two keys, 2 for the key/value pairs of MSET
+     * @return the param indexes of the keys, grouped by slot in the order the slots first appear
+     */
+    static Map<Integer, List<Integer>> keyIndexesBySlot(byte[][] params, int keyStep) {
+        Map<Integer, List<Integer>> keyIndexesBySlot = new LinkedHashMap<>();
+        for (int i = 0; i < params.length; i += keyStep) {
+            keyIndexesBySlot.computeIfAbsent(JedisClusterCRC16.getSlot(params[i]), slot -> new ArrayList<>()).add(i);
+        }
+        return keyIndexesBySlot;
+    }
 
-            Object result;
-            if (params == null || params.length == 0) {
-                result = this.jedisCluster.sendCommand(sampleKey, command);
+    /**
+     * @return the params of the command of each slot, each key followed by the {@code keyStep - 1} params
+     * after it
+     */
+    static List<byte[][]> splitParams(byte[][] params, int keyStep, Map<Integer, List<Integer>> keyIndexesBySlot) {
+        List<byte[][]> split = new ArrayList<>(keyIndexesBySlot.size());
+        for (List<Integer> keyIndexes : keyIndexesBySlot.values()) {
+            byte[][] slotParams = new byte[keyIndexes.size() * keyStep][];
+            for (int i = 0; i < keyIndexes.size(); i++) {
+                System.arraycopy(params, keyIndexes.get(i), slotParams, i * keyStep, keyStep);
+            }
+            split.add(slotParams);
+        }
+        return split;
+    }
+
+    /**
+     * @param replies the reply of the command of each slot, in the order of {@code keyIndexesBySlot}
+     * @return the reply of the whole command, see {@link #splitBySlot(CompiledOp, int)}
+     */
+    static Object mergeSlotReplies(String name, int paramCount, Map<Integer, List<Integer>> keyIndexesBySlot,
+                                   List<Object> replies) {
+        if ("MGET".equalsIgnoreCase(name)) {
+            Object[] values = new Object[paramCount];
+            Iterator<Object> slotReplies = replies.iterator();
+            for (List<Integer> keyIndexes : keyIndexesBySlot.values()) {
+                List<?> slotValues = (List<?>) slotReplies.next();
+                for (int i = 0; i < keyIndexes.size(); i++) {
+                    values[keyIndexes.get(i)] = slotValues.get(i);
+                }
+            }
+            return Arrays.asList(values);
+        }
+        if ("MSET".equalsIgnoreCase(name)) {
+            return replies.get(0);
+        }
+        long sum = 0;
+        for (Object reply : replies) {
+            sum += (Long) reply;
+        }
+        return sum;
+    }
+
+    /**
+     * KEYS, and SCAN from cursor 0, stream the keys of all masters, see {@link ClusterScanResultSet};
+     * HSCAN and the like follow their key.
+     */
+    @Override
+    public ResultSet scan(Op op, int fetchSize, boolean shapeResults, Statement owningStatement) throws SQLException {
+        RedisScanResultSet resultSet = RedisScanResultSet.of(op, this, fetchSize, shapeResults, owningStatement);
+        boolean keyspace = "KEYS".equalsIgnoreCase(op.getCommand()) || "SCAN".equalsIgnoreCase(op.getCommand());
+        if (resultSet == null || !keyspace) {
+            return resultSet;
+        }
+        if (!"0".equals(op.getParams()[0]) && "SCAN".equalsIgnoreCase(op.getCommand())) {
+            // not streamed, the cursor of a single node means nothing on the others
+            return null;
+        }
+        try {
+            return new ClusterScanResultSet(resultSet, this.topology.masters(), FAN_OUT);
+        } catch (RuntimeException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    /**
+     * Run the tasks at once on the fan-out threads, a single one in the calling thread.
+     *
+     * @return the results in the order of the tasks
+     */
+    private static <T> List<T> fanOut(List<Callable<T>> tasks) {
+        try {
+            if (tasks.size() == 1) {
+                return Collections.singletonList(tasks.get(0).call());
+            }
+            List<T> results = new ArrayList<>(tasks.size());
+            for (Future<T> future : FAN_OUT.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * One pipeline per master: the ops are grouped by the node owning their key, each group is written
+     * on one connection of that node, all nodes at once, then the replies are put back in the order of the ops.
+     * <p>
+     * Keyless commands go to the owner of slot 0. On a read-only connection the reads go to a replica of their
+     * slot instead, one replica per slot for the whole batch. An op redirected by MOVED or ASK is sent again on
+     * its own, following the redirect; a read redirected by a replica is sent again to the master.
+     */
+    @Override
+    protected List<Object> pipeline(List<CompiledOp> compiledOps) {
+        Map<JedisPool, List<Integer>> indexesByNode = new LinkedHashMap<>();
+        Set<JedisPool> replicaNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<Integer, JedisPool> replicaBySlot = new HashMap<>();
+        int[] slots = new int[compiledOps.size()];
+        boolean[] onReplica = new boolean[compiledOps.size()];
+        for (int i = 0; i < compiledOps.size(); i++) {
+            slots[i] = slotOf(compiledOps.get(i));
+            JedisPool node = null;
+            if (this.readsReplica(compiledOps.get(i))) {
+                List<JedisPool> slotReplicas = this.topology.replicasOf(slots[i]);
+                if (!slotReplicas.isEmpty()) {
+                    node = replicaBySlot.computeIfAbsent(slots[i], slot -> this.replicaBalancer.choose(slotReplicas));
+                    replicaNodes.add(node);
+                    onReplica[i] = true;
+                }
+            }
+            if (node == null) {
+                node = this.topology.poolOf(slots[i]);
+            }
+            indexesByNode.computeIfAbsent(node, n -> new ArrayList<>()).add(i);
+        }
+
+        List<Callable<List<Object>>> tasks = new ArrayList<>(indexesByNode.size());
+        for (Map.Entry<JedisPool, List<Integer>> entry : indexesByNode.entrySet()) {
+            JedisPool pool = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+            boolean replica = replicaNodes.contains(pool);
+            tasks.add(() -> {
+                try (Jedis jedis = pool.getResource()) {
+                    if (replica) {
+                        this.topology.readOnly(jedis);
+                    }
+                    Pipeline pipeline = jedis.pipelined();
+                    for (int index : indexes) {
+                        CompiledOp compiledOp = compiledOps.get(index);
+                        pipeline.sendCommand(compiledOp.getCommand(), compiledOp.getParams());
+                    }
+                    return pipeline.syncAndReturnAll();
+                }
+            });
+        }
+
+        Object[] replies = new Object[compiledOps.size()];
+        Iterator<List<Object>> nodeRepliesIterator = fanOut(tasks).iterator();
+        for (List<Integer> indexes : indexesByNode.values()) {
+            List<Object> nodeReplies = nodeRepliesIterator.next();
+            for (int i = 0; i < indexes.size(); i++) {
+                replies[indexes.get(i)] = nodeReplies.get(i);
+            }
+        }
+        for (int index = 0; index < replies.length; index++) {
+            if (!(replies[index] instanceof JedisRedirectionException)) {
+                continue;
+            }
+            if (onReplica[index]) {
+                replies[index] = this.resendToMaster(compiledOps.get(index), slots[index]);
             } else {
-                result = this.jedisCluster.sendCommand(sampleKey, command, params);
+                replies[index] = this.resend(compiledOps.get(index), slots[index], (JedisRedirectionException) replies[index]);
             }
-            return result;
-        } catch (Throwable e) {
-            LOGGER.log("command `%s` cannot execute.", rawSql);
-            throw new RuntimeException(String.format("command `%s` cannot execute.", rawSql));
         }
+        return Arrays.asList(replies);
     }
 
+    /**
+     * @return the reply of the master to a read its replica redirected, or the error Redis replied
+     */
+    private Object resendToMaster(CompiledOp compiledOp, int slot) {
+        this.topology.replicaRedirected(slot);
+        try {
+            return this.topology.execute(slot, jedis -> jedis.sendCommand(compiledOp.getCommand(), compiledOp.getParams()));
+        } catch (JedisDataException e) {
+            return e;
+        }
+    }
+
+    /**
+     * @return the reply of the redirected op, or the error Redis replied
+     */
+    private Object resend(CompiledOp compiledOp, int slot, JedisRedirectionException redirect) {
+        HostAndPort askTarget = this.topology.redirected(redirect);
+        try {
+            if (askTarget == null) {
+                return this.topology.execute(slot, jedis -> jedis.sendCommand(compiledOp.getCommand(), compiledOp.getParams()));
+            }
+            try (Jedis jedis = this.jedisCluster.poolOf(askTarget).getResource()) {
+                jedis.asking();
+                return jedis.sendCommand(compiledOp.getCommand(), compiledOp.getParams());
+            }
+        } catch (JedisDataException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Whether the op is a read of a read-only connection, for a replica of its slot. The keyspace commands
+     * run on every master are not, their replicas hold the same keys.
+     */
+    private boolean readsReplica(CompiledOp compiledOp) {
+        return this.readOnly && ReadOnlyCommands.contains(compiledOp.getOp().getCommand());
+    }
+
+    private static int slotOf(CompiledOp compiledOp) {
+        byte[] key = keyOf(compiledOp);
+        return key == null ? 0 : JedisClusterCRC16.getSlot(key);
+    }
+
+    /**
+     * The {@code sample_key} hint if any, else the first key of the command as found by {@link KeyPositions}.
+     *
+     * @return null for a keyless command
+     */
+    private static byte[] keyOf(CompiledOp compiledOp) {
+        byte[] key = sampleKey(compiledOp.getOp().getHints());
+        if (key != null) {
+            return key;
+        }
+        byte[][] params = compiledOp.getParams();
+        int index = KeyPositions.firstKey(compiledOp.getOp().getCommand(), params);
+        return index == KeyPositions.NO_KEY ? null : params[index];
+    }
+
+    private static byte[] sampleKey(List<Hint> hints) {
+        return hints.stream()
+                .filter(hint -> Objects.equals(hint.getKey(), Hint.HINT_KEY_SAMPLE_KEY))
+                .findFirst()
+                .map(hint -> SafeEncoder.encode(hint.getValue()))
+                .orElse(null);
+    }
+
+    /**
+     * A read-only connection sends its reads to the replicas, see {@link ClusterTopology#executeOnReplica}.
+     */
+    @Override
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * A cluster only has db 0.
+     */
     @Override
     public void select(int dbIndex) throws SQLException {
-        throw new SQLException("Redis Cluster does not support this operation");
+        if (dbIndex != 0) {
+            throw new SQLException("Redis Cluster does not support this operation");
+        }
     }
 
+    /**
+     * The slot map, with its redirect and refresh counters; {@code connection.unwrap(JedisRedisClusterClient.class)}
+     * gives access to it.
+     */
+    public ClusterTopology getTopology() {
+        return this.topology;
+    }
+
+    /**
+     * Gives the shared cluster client back, see {@link JedisClusters}.
+     */
     @Override
     public void close() {
-        this.jedisCluster.close();
+        if (this.closed.compareAndSet(false, true)) {
+            this.jedisCluster.close();
+        }
     }
 }
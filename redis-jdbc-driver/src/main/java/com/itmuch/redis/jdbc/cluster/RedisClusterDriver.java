@@ -4,8 +4,6 @@ import com.itmuch.redis.jdbc.Logger;
 import com.itmuch.redis.jdbc.RedisConnection;
 import com.itmuch.redis.jdbc.conf.RedisClusterConnectionInfo;
 import com.itmuch.redis.jdbc.redis.RedisDriver;
-import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
-import redis.clients.jedis.JedisCluster;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -21,7 +19,7 @@ public class RedisClusterDriver implements Driver {
         try {
             DriverManager.registerDriver(new RedisClusterDriver());
         } catch (Exception e) {
-            LOGGER.log("Can't register driver!");
+            LOGGER.warn("Can't register driver!", e);
             throw new RuntimeException("Can't register driver!", e);
         }
     }
@@ -39,19 +37,15 @@ public class RedisClusterDriver implements Driver {
         String rawUrl = url.replaceFirst("jdbc:", "");
         RedisClusterConnectionInfo connectionInfo = new RedisClusterConnectionInfo(rawUrl, info);
 
-        JedisCluster jedisCluster = new JedisCluster(
-                connectionInfo.getNodes(),
-                connectionInfo.getTimeout(),
-                connectionInfo.getTimeout(),
-                connectionInfo.getMaxAttempts(),
-                connectionInfo.getUsername(),
-                connectionInfo.getPassword(),
-                null,
-                new GenericObjectPoolConfig<>()
-        );
-        JedisRedisClusterClient jedisRedisClusterClient = new JedisRedisClusterClient(jedisCluster);
-
-        return new RedisConnection(jedisRedisClusterClient, "0", info);
+        SlotAwareJedisCluster jedisCluster = JedisClusters.acquire(connectionInfo);
+        try {
+            JedisRedisClusterClient jedisRedisClusterClient = new JedisRedisClusterClient(jedisCluster, connectionInfo);
+
+            return new RedisConnection(jedisRedisClusterClient, "0", info);
+        } catch (RuntimeException e) {
+            jedisCluster.close();
+            throw e;
+        }
     }
 
     @Override
@@ -81,7 +75,7 @@ public class RedisClusterDriver implements Driver {
 
     @Override
     public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
-        return null;
+        return Logger.getParentLogger();
     }
 
     public static void main(String[] args) throws URISyntaxException {
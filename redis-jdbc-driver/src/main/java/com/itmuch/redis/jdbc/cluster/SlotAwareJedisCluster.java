@@ -0,0 +1,98 @@
+package com.itmuch.redis.jdbc.cluster;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPool;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link JedisCluster} whose commands are routed by a {@link ClusterTopology} rather than by the slot cache
+ * of Jedis, of which only the node pools are used.
+ * <p>
+ * Shared by connections, it counts them: each {@link #retain()} is matched by a {@link #close()},
+ * the last one closing the node pools.
+ */
+public class SlotAwareJedisCluster extends JedisCluster {
+    /**
+     * connections using this cluster client, -1 once it is closed
+     */
+    private final AtomicInteger references = new AtomicInteger();
+    private volatile Runnable onLastClose = () -> {
+    };
+
+    private final ClusterTopology topology;
+
+    /**
+     * @param topologyRefreshPeriodMillis      mean period of the background refresh of the slot map, 0 for none
+     * @param topologyMinRefreshIntervalMillis time after a reload of the slot map during which a connection failure
+     *                                         does not reload it again
+     */
+    public SlotAwareJedisCluster(Set<HostAndPort> nodes, int connectionTimeout, int soTimeout, int maxAttempts,
+                                 String user, String password, String clientName,
+                                 GenericObjectPoolConfig<Jedis> poolConfig, long topologyRefreshPeriodMillis,
+                                 long topologyMinRefreshIntervalMillis) {
+        super(nodes, connectionTimeout, soTimeout, maxAttempts, user, password, clientName, poolConfig);
+        try {
+            this.topology = new ClusterTopology(this, maxAttempts, topologyRefreshPeriodMillis,
+                    topologyMinRefreshIntervalMillis);
+        } catch (RuntimeException e) {
+            super.close();
+            throw e;
+        }
+    }
+
+    public ClusterTopology getTopology() {
+        return this.topology;
+    }
+
+    /**
+     * The pool of a node, created if the node is new to the cluster.
+     */
+    JedisPool poolOf(HostAndPort node) {
+        JedisPool pool = this.connectionHandler.getNodes().get(node.toString());
+        if (pool == null) {
+            // sets up the pool of the node
+            this.connectionHandler.getConnectionFromNode(node).close();
+            pool = this.connectionHandler.getNodes().get(node.toString());
+        }
+        return pool;
+    }
+
+    /**
+     * Count one more connection.
+     *
+     * @return false if the last connection closed this cluster client already
+     */
+    public boolean retain() {
+        while (true) {
+            int references = this.references.get();
+            if (references < 0) {
+                return false;
+            }
+            if (this.references.compareAndSet(references, references + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void onLastClose(Runnable onLastClose) {
+        this.onLastClose = onLastClose;
+    }
+
+    /**
+     * Release one connection; the node pools are closed with the last one.
+     */
+    @Override
+    public void close() {
+        if (this.references.decrementAndGet() > 0 || !this.references.compareAndSet(0, -1)) {
+            return;
+        }
+        this.onLastClose.run();
+        this.topology.close();
+        super.close();
+    }
+}
@@ -1,6 +1,7 @@
 package com.itmuch.redis.jdbc.conf;
 
 import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.ReplicaBalancer;
 import com.itmuch.redis.jdbc.Utils;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -23,6 +24,25 @@ public class RedisClusterConnectionInfo extends BaseConnectionInfo {
 
     private Set<HostAndPort> nodes;
     private int maxAttempts;
+    /**
+     * sizing of the socket pool of each node, shared by the connections to the same cluster
+     */
+    private int poolMaxTotal;
+    private int poolMaxIdle;
+    private int poolMinIdle;
+    private long poolMaxWaitMillis;
+    /**
+     * mean period of the background refresh of the slot map, 0 for none
+     */
+    private long topologyRefreshPeriodMillis;
+    /**
+     * time after a reload of the slot map during which a connection failure does not reload it again
+     */
+    private long topologyMinRefreshIntervalMillis;
+    /**
+     * how read-only connections pick the replica of a slot
+     */
+    private ReplicaBalancer.Strategy replicaSelection;
 
     public RedisClusterConnectionInfo(String rawUrl, Properties info) {
         super((info));
@@ -47,5 +67,13 @@ public class RedisClusterConnectionInfo extends BaseConnectionInfo {
             LOGGER.log("Cannot parse JDBC URL %s", rawUrl);
             throw new RuntimeException("Cannot parse JDBC URL: " + rawUrl, e);
         }
+
+        this.poolMaxTotal = Integer.parseInt(info.getOrDefault("poolMaxTotal", "8").toString());
+        this.poolMaxIdle = Integer.parseInt(info.getOrDefault("poolMaxIdle", "8").toString());
+        this.poolMinIdle = Integer.parseInt(info.getOrDefault("poolMinIdle", "0").toString());
+        this.poolMaxWaitMillis = Long.parseLong(info.getOrDefault("poolMaxWaitMillis", String.valueOf(this.timeout)).toString());
+        this.topologyRefreshPeriodMillis = Long.parseLong(info.getOrDefault("topologyRefreshPeriodMillis", "60000").toString());
+        this.topologyMinRefreshIntervalMillis = Long.parseLong(info.getOrDefault("topologyMinRefreshIntervalMillis", "1000").toString());
+        this.replicaSelection = ReplicaBalancer.Strategy.of(info.getOrDefault("replicaSelection", "random").toString());
     }
 }
@@ -1,10 +1,18 @@
 package com.itmuch.redis.jdbc.conf;
 
 import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.ReplicaBalancer;
+import com.itmuch.redis.jdbc.Utils;
 import lombok.*;
+import redis.clients.jedis.HostAndPort;
 
 import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.stream.Collectors;
 
 @Data
 @EqualsAndHashCode(callSuper = true)
@@ -14,6 +22,33 @@ public class RedisConnectionInfo extends BaseConnectionInfo {
     private String host;
     private int port;
     private int dbIndex;
+    /**
+     * whether one socket is shared by the threads of the connection, see {@code MultiplexedRedisClient}
+     */
+    private boolean multiplexed;
+
+    /**
+     * whether sockets are borrowed from a pool shared by the connections to the same URL and credentials
+     */
+    private boolean pool;
+    private int poolMaxTotal;
+    private int poolMaxIdle;
+    private int poolMinIdle;
+    private long poolMaxWaitMillis;
+    private long poolMinEvictableIdleTimeMillis;
+    private long poolTimeBetweenEvictionRunsMillis;
+
+    /**
+     * the replicas of the primary of the URL, empty for none, see {@code ReplicatedRedisClient}
+     */
+    private List<HostAndPort> replicas;
+    /**
+     * whether the read-only commands of every connection go to the replicas, not only those of read-only connections;
+     * from {@code MULTI} or {@code WATCH} to {@code EXEC}, {@code DISCARD} or {@code UNWATCH}, they stay on the primary
+     */
+    private boolean readFromReplicas;
+    private ReplicaBalancer.Strategy replicaSelection;
+    private long replicaHealthCheckMillis;
 
     public RedisConnectionInfo(String rawUrl, Properties info) {
         super(info);
@@ -33,9 +68,44 @@ public class RedisConnectionInfo extends BaseConnectionInfo {
             this.port = port;
             this.dbIndex = dbIndex;
 
+            // jdbc:redis://host:port/db?multiplexed=true, or the property of the same name
+            String query = uri.getQuery();
+            Map<String, String> paramMap = query == null ? Collections.emptyMap() : Utils.parseQueryStringToMap(query);
+            String multiplexedString = paramMap.get("multiplexed");
+            if (multiplexedString == null) {
+                multiplexedString = info.getProperty("multiplexed");
+            }
+            this.multiplexed = "on".equalsIgnoreCase(multiplexedString) || "true".equalsIgnoreCase(multiplexedString);
+
+            // jdbc:redis://primary:6379/db?replicas=host1:6380;host2:6380, or the property of the same name
+            String replicasString = paramMap.get("replicas");
+            if (replicasString == null) {
+                replicasString = info.getProperty("replicas", "");
+            }
+            this.replicas = Arrays.stream(replicasString.split(";"))
+                    .filter(r -> !r.trim().isEmpty())
+                    .map(r -> {
+                        String[] split = r.trim().split(":");
+                        return new HostAndPort(split[0], split.length > 1 ? Integer.parseInt(split[1]) : 6379);
+                    }).collect(Collectors.toList());
+
         } catch (Exception e) {
             LOGGER.log("Cannot parse JDBC URL %s", rawUrl);
             throw new RuntimeException("Cannot parse JDBC URL: " + rawUrl, e);
         }
+
+        String poolString = info.getProperty("pool");
+        this.pool = "on".equalsIgnoreCase(poolString) || "true".equalsIgnoreCase(poolString);
+        this.poolMaxTotal = Integer.parseInt(info.getOrDefault("poolMaxTotal", "8").toString());
+        this.poolMaxIdle = Integer.parseInt(info.getOrDefault("poolMaxIdle", "8").toString());
+        this.poolMinIdle = Integer.parseInt(info.getOrDefault("poolMinIdle", "0").toString());
+        this.poolMaxWaitMillis = Long.parseLong(info.getOrDefault("poolMaxWaitMillis", String.valueOf(this.timeout)).toString());
+        this.poolMinEvictableIdleTimeMillis = Long.parseLong(info.getOrDefault("poolMinEvictableIdleTimeMillis", "60000").toString());
+        this.poolTimeBetweenEvictionRunsMillis = Long.parseLong(info.getOrDefault("poolTimeBetweenEvictionRunsMillis", "30000").toString());
+
+        String readFromReplicasString = info.getProperty("readFromReplicas");
+        this.readFromReplicas = "on".equalsIgnoreCase(readFromReplicasString) || "true".equalsIgnoreCase(readFromReplicasString);
+        this.replicaSelection = ReplicaBalancer.Strategy.of(info.getOrDefault("replicaSelection", "random").toString());
+        this.replicaHealthCheckMillis = Long.parseLong(info.getOrDefault("replicaHealthCheckMillis", "5000").toString());
     }
 }
@@ -0,0 +1,90 @@
+package com.itmuch.redis.jdbc.conf;
+
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.Utils;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import redis.clients.jedis.HostAndPort;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+@Data
+@NoArgsConstructor
+@EqualsAndHashCode(callSuper = true)
+public class RedisSentinelConnectionInfo extends BaseConnectionInfo {
+    private final static Logger LOGGER = new Logger(RedisSentinelConnectionInfo.class);
+
+    private List<HostAndPort> sentinels;
+    private String masterName;
+    private int dbIndex;
+    /**
+     * password of the sentinels, if they require one
+     */
+    private String sentinelPassword;
+    /**
+     * delay before subscribing again to a sentinel that closed the subscription
+     */
+    private long sentinelRetryMillis;
+
+    /**
+     * whether sockets are borrowed from a pool to the current master, shared by the connections to the same URL
+     * and credentials
+     */
+    private boolean pool;
+    private int poolMaxTotal;
+    private int poolMaxIdle;
+    private int poolMinIdle;
+    private long poolMaxWaitMillis;
+    private long poolMinEvictableIdleTimeMillis;
+    private long poolTimeBetweenEvictionRunsMillis;
+
+    public RedisSentinelConnectionInfo(String rawUrl, Properties info) {
+        super(info);
+        try {
+            // redis-sentinel:///db?host=host1:26379;host2:26379&masterName=mymaster
+            URI uri = new URI(rawUrl);
+
+            String path = uri.getPath();
+            int dbIndex = 0;
+            if (path != null && path.length() > 1) {
+                dbIndex = Integer.parseInt(path.replaceAll("/", ""));
+            }
+
+            String query = uri.getQuery();
+            Map<String, String> paramMap = Utils.parseQueryStringToMap(query);
+            String host = paramMap.get("host");
+            String[] hosts = host.split(";");
+
+            this.sentinels = Arrays.stream(hosts)
+                    .map(h -> {
+                        String[] split = h.split(":");
+                        return new HostAndPort(split[0], split.length > 1 ? Integer.parseInt(split[1]) : 26379);
+                    }).collect(Collectors.toList());
+
+            String masterName = paramMap.get("masterName");
+            this.masterName = masterName != null ? masterName : info.getOrDefault("masterName", "mymaster").toString();
+            this.dbIndex = dbIndex;
+        } catch (Exception e) {
+            LOGGER.log("Cannot parse JDBC URL %s", rawUrl);
+            throw new RuntimeException("Cannot parse JDBC URL: " + rawUrl, e);
+        }
+
+        this.sentinelPassword = info.getProperty("sentinelPassword");
+        this.sentinelRetryMillis = Long.parseLong(info.getOrDefault("sentinelRetryMillis", "1000").toString());
+
+        String poolString = info.getProperty("pool");
+        this.pool = "on".equalsIgnoreCase(poolString) || "true".equalsIgnoreCase(poolString);
+        this.poolMaxTotal = Integer.parseInt(info.getOrDefault("poolMaxTotal", "8").toString());
+        this.poolMaxIdle = Integer.parseInt(info.getOrDefault("poolMaxIdle", "8").toString());
+        this.poolMinIdle = Integer.parseInt(info.getOrDefault("poolMinIdle", "0").toString());
+        this.poolMaxWaitMillis = Long.parseLong(info.getOrDefault("poolMaxWaitMillis", String.valueOf(this.timeout)).toString());
+        this.poolMinEvictableIdleTimeMillis = Long.parseLong(info.getOrDefault("poolMinEvictableIdleTimeMillis", "60000").toString());
+        this.poolTimeBetweenEvictionRunsMillis = Long.parseLong(info.getOrDefault("poolTimeBetweenEvictionRunsMillis", "30000").toString());
+    }
+}
@@ -0,0 +1,49 @@
+package com.itmuch.redis.jdbc.redis;
+
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.conf.RedisConnectionInfo;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The driver-level socket pools of {@link RedisDriver}, one per URL and credentials.
+ * <p>
+ * A pool is created by the first connection to its URL, with that connection's pool properties,
+ * and lives as long as the driver. Sockets come out of it authenticated and on the db of the URL.
+ */
+class JedisPools {
+    private final static Logger LOGGER = new Logger(JedisPools.class);
+
+    private static final ConcurrentMap<List<Object>, JedisPool> POOLS = new ConcurrentHashMap<>();
+
+    private JedisPools() {
+    }
+
+    static Jedis borrow(RedisConnectionInfo info) {
+        List<Object> key = Arrays.asList(
+                info.getHost(), info.getPort(), info.getDbIndex(),
+                info.getUsername(), info.getPassword(), info.isSsl(), info.getTimeout()
+        );
+        return POOLS.computeIfAbsent(key, k -> create(info)).getResource();
+    }
+
+    private static JedisPool create(RedisConnectionInfo info) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(info.getPoolMaxTotal());
+        poolConfig.setMaxIdle(info.getPoolMaxIdle());
+        poolConfig.setMinIdle(info.getPoolMinIdle());
+        poolConfig.setMaxWaitMillis(info.getPoolMaxWaitMillis());
+        poolConfig.setMinEvictableIdleTimeMillis(info.getPoolMinEvictableIdleTimeMillis());
+        poolConfig.setTimeBetweenEvictionRunsMillis(info.getPoolTimeBetweenEvictionRunsMillis());
+
+        LOGGER.log("create pool for %s:%s/%s, maxTotal = %s", info.getHost(), info.getPort(), info.getDbIndex(), info.getPoolMaxTotal());
+        return new JedisPool(poolConfig, info.getHost(), info.getPort(), info.getTimeout(), info.getTimeout(),
+                info.getUsername(), info.getPassword(), info.getDbIndex(), null, info.isSsl(), null, null, null);
+    }
+}
@@ -1,52 +1,517 @@
 package com.itmuch.redis.jdbc.redis;
 
 import com.itmuch.redis.jdbc.AbstractRedisClient;
+import com.itmuch.redis.jdbc.CompiledOp;
 import com.itmuch.redis.jdbc.Logger;
-import com.itmuch.redis.jdbc.conf.Op;
+import com.itmuch.redis.jdbc.conf.BaseConnectionInfo;
+import redis.clients.jedis.Client;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.commands.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.IOUtils;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 public class JedisRedisClient extends AbstractRedisClient {
     public static final Logger LOGGER = new Logger(JedisRedisClient.class);
 
-    private final Jedis jedis;
+    private static final byte[] PING = SafeEncoder.encode("*1\r\n$4\r\nPING\r\n");
+    private static final byte[] OK = SafeEncoder.encode("OK");
+
+    /**
+     * opens, or borrows, an authenticated socket on the db of the URL
+     */
+    private final Supplier<Jedis> connector;
+    /**
+     * replaced by a fresh socket after a timeout or a cancel
+     */
+    private volatile Jedis jedis;
+    /**
+     * whether {@link #close()} gives the socket back to a pool rather than closing it
+     */
+    private final boolean pooled;
+    private final int initialDb;
+    /**
+     * dbs this connection has already selected successfully, switching back to one of them is deferred
+     */
+    private final BitSet selectedDbs = new BitSet();
+    /**
+     * db to switch to with the next command, -1 if the current db is the right one
+     */
+    private int pendingDb = -1;
+    /**
+     * guards the socket; a lock rather than a monitor, so a virtual thread blocked on I/O does not pin its carrier
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * the owner of the calling thread, see {@link #withOwner(Object, Call)}
+     */
+    private static final ThreadLocal<Object> OWNER = new ThreadLocal<>();
 
-    public JedisRedisClient(Jedis jedis) {
+    /**
+     * whether a command is on the socket, only then {@link #cancel(Object)} closes it
+     */
+    private volatile boolean executing = false;
+    /**
+     * the owner of the command on the socket
+     */
+    private Object executingOwner;
+    /**
+     * guards {@link #executing} and {@link #executingOwner} against a cancel, so that a cancel never closes
+     * the socket under the command of another owner that began meanwhile
+     */
+    private final ReentrantLock cancelLock = new ReentrantLock();
+    private volatile boolean cancelled = false;
+    /**
+     * whether the socket is replaced before the next command, see {@link #reconnect()}
+     */
+    private volatile boolean stale = false;
+    /**
+     * whether {@link #jedis} was closed, or given back to its pool, and no fresh socket could be had: it is
+     * neither used nor closed again, the next command asks the connector for a socket first
+     */
+    private volatile boolean dropped = false;
+    /**
+     * read timeout of the socket between query timeouts, see {@link #setNetworkTimeout(int)}
+     */
+    private volatile int soTimeout;
+
+    public JedisRedisClient(Supplier<Jedis> connector, BaseConnectionInfo connectionInfo, boolean pooled) {
+        super(connectionInfo);
+        this.connector = connector;
+        this.pooled = pooled;
+        this.soTimeout = connectionInfo.getTimeout();
+        Jedis jedis = connector.get();
+        try {
+            this.initialDb = jedis.getDB();
+            this.selectedDbs.set(this.initialDb);
+        } catch (RuntimeException e) {
+            // gives a borrowed socket back to its pool
+            jedis.close();
+            throw e;
+        }
         this.jedis = jedis;
     }
 
     @Override
-    protected synchronized Object sendCommand(Op op) {
-        String rawSql = op.getOriginSql();
-        String commandString = op.getCommand();
-        String[] params = op.getParams();
+    protected Object sendCommand(CompiledOp compiledOp) {
+        int selectedDb = selectedDb(compiledOp);
+        if (selectedDb >= 0) {
+            this.select(selectedDb);
+            return OK;
+        }
+        String rawSql = compiledOp.getOp().getOriginSql();
+        ProtocolCommand command = compiledOp.getCommand();
+        byte[][] params = compiledOp.getParams();
+
+        this.lock.lock();
+        try {
+            this.begin();
+            if (this.pendingDb >= 0) {
+                Object reply = this.doPipeline(Collections.singletonList(compiledOp)).get(0);
+                if (reply instanceof JedisDataException) {
+                    throw (JedisDataException) reply;
+                }
+                return reply;
+            }
+
+            int db = -1;
+            try {
+                db = jedis.getDB();
+
+                return this.jedis.sendCommand(command, params);
+            } catch (Throwable e) {
+                LOGGER.warn("command on db %s `%s` cannot execute.", db, rawSql, e);
+                throw new RuntimeException(String.format("command on db %s `%s` cannot execute.", db, rawSql), e);
+            }
+        } catch (RuntimeException e) {
+            throw this.recover(e);
+        } finally {
+            this.end();
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    protected List<Object> pipeline(List<CompiledOp> compiledOps) {
+        this.lock.lock();
+        try {
+            this.begin();
+            return this.doPipeline(compiledOps);
+        } catch (RuntimeException e) {
+            throw this.recover(e);
+        } finally {
+            this.end();
+            this.lock.unlock();
+        }
+    }
+
+    private List<Object> doPipeline(List<CompiledOp> compiledOps) {
+        Pipeline pipeline = this.jedis.pipelined();
+        boolean switchDb = this.pendingDb >= 0;
+        if (switchDb) {
+            // piggybacked: saves the round trip of the SELECT
+            pipeline.select(this.pendingDb);
+            this.pendingDb = -1;
+        }
+        for (CompiledOp compiledOp : compiledOps) {
+            pipeline.sendCommand(compiledOp.getCommand(), compiledOp.getParams());
+        }
+        List<Object> replies = pipeline.syncAndReturnAll();
+        if (switchDb) {
+            replies = replies.subList(1, replies.size());
+        }
+        for (int i = 0; i < compiledOps.size(); i++) {
+            // a SELECT among the ops moved the socket, as select(int) would have
+            int db = selectedDb(compiledOps.get(i));
+            if (db >= 0 && !(replies.get(i) instanceof JedisDataException)) {
+                this.jedis.getClient().setDb(db);
+                this.selectedDbs.set(db);
+            }
+        }
+        return replies;
+    }
+
+    /**
+     * Sets the read timeout of the socket for the call; the lock is held throughout, so the commands
+     * of other statements keep the timeout of the connection.
+     */
+    @Override
+    public <T> T withQueryTimeout(int timeoutMillis, Call<T> call) throws SQLException {
+        this.lock.lock();
+        try {
+            try {
+                this.prepareSocket().setSoTimeout(timeoutMillis);
+            } catch (RuntimeException e) {
+                throw toSQLException(this.recover(e));
+            }
+            try {
+                return call.call();
+            } finally {
+                this.restoreSoTimeout();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean supportsQueryTimeout() {
+        return true;
+    }
+
+    /**
+     * Writes a pre-encoded PING straight to the socket and reads the status reply, bypassing the parser
+     * and the command lookup.
+     */
+    @Override
+    public boolean ping(int timeoutMillis) {
+        try {
+            if (timeoutMillis > 0) {
+                if (!this.lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+            } else {
+                this.lock.lockInterruptibly();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        try {
+            this.begin();
+            Client client = this.prepareSocket();
+            boolean bounded = timeoutMillis > 0 && timeoutMillis != this.soTimeout;
+            if (bounded) {
+                client.setSoTimeout(timeoutMillis);
+            }
+            try {
+                OutputStream outputStream = client.getSocket().getOutputStream();
+                outputStream.write(PING);
+                outputStream.flush();
+                return "PONG".equals(client.getStatusCodeReply());
+            } finally {
+                if (bounded) {
+                    this.restoreSoTimeout();
+                }
+            }
+        } catch (IOException e) {
+            // written around Jedis, which does not know the socket failed
+            IOUtils.closeQuietly(this.jedis.getClient().getSocket());
+            return false;
+        } catch (RuntimeException e) {
+            this.recover(e);
+            return false;
+        } finally {
+            this.end();
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void setNetworkTimeout(int timeoutMillis) {
+        this.lock.lock();
+        try {
+            this.soTimeout = timeoutMillis;
+            if (!this.dropped) {
+                this.jedis.getClient().setSoTimeout(timeoutMillis);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int getNetworkTimeout() {
+        return this.soTimeout;
+    }
 
-        int db = -1;
+    /**
+     * Reconnects a socket closed by a cancel that came after its command, before its options are touched;
+     * a stale or dropped one is replaced instead.
+     */
+    private Client prepareSocket() {
+        if (this.stale || this.dropped) {
+            this.replaceSocket();
+        }
+        Client client = this.jedis.getClient();
+        client.connect();
+        return client;
+    }
+
+    /**
+     * The socket may have been replaced meanwhile, the fresh one gets the timeout all the same.
+     */
+    private void restoreSoTimeout() {
+        if (this.dropped) {
+            return;
+        }
         try {
-            db = jedis.getDB();
-            Protocol.Command command = this.convertCommand(commandString);
+            this.jedis.getClient().setSoTimeout(this.soTimeout);
+        } catch (JedisConnectionException e) {
+            LOGGER.log("cannot restore read timeout: %s", e);
+        }
+    }
 
-            Object result;
-            if (params == null || params.length == 0) {
-                result = this.jedis.sendCommand(command);
+    @Override
+    public <T> T withOwner(Object owner, Call<T> call) throws SQLException {
+        Object previous = OWNER.get();
+        OWNER.set(owner);
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                OWNER.remove();
             } else {
-                result = this.jedis.sendCommand(command, params);
+                OWNER.set(previous);
             }
-            return result;
-        } catch (Throwable e) {
-            LOGGER.log("command on db %s `%s` cannot execute.", db, rawSql);
-            throw new RuntimeException(String.format("command on db %s `%s` cannot execute.", db, rawSql));
         }
     }
 
+    /**
+     * Closes the socket under the command in flight if it is the owner's: the thread running it fails,
+     * then moves the client to a fresh socket. Nothing happens if no command of the owner is in flight.
+     */
     @Override
-    public synchronized void select(int dbIndex) {
-        this.jedis.select(dbIndex);
+    public void cancel(Object owner) {
+        this.cancelLock.lock();
+        try {
+            if (this.executing && this.executingOwner == owner && !this.dropped) {
+                LOGGER.log("cancel command in flight");
+                this.cancelled = true;
+                IOUtils.closeQuietly(this.jedis.getClient().getSocket());
+            }
+        } finally {
+            this.cancelLock.unlock();
+        }
     }
 
+    /**
+     * Moves the client to a fresh socket from its connector, e.g. once the server behind the connector changed:
+     * the swap happens before the next command, and a command in flight fails at once instead of waiting for its
+     * read timeout.
+     * <p>
+     * The socket is closed under {@link #cancelLock}, which the swap to a fresh socket holds too: only the socket
+     * of the command in flight is closed, never one swapped in meanwhile, nor one already dropped.
+     */
+    public void reconnect() {
+        this.cancelLock.lock();
+        try {
+            this.stale = true;
+            if (this.executing && !this.dropped) {
+                LOGGER.log("reconnect under command in flight");
+                IOUtils.closeQuietly(this.jedis.getClient().getSocket());
+            }
+        } finally {
+            this.cancelLock.unlock();
+        }
+    }
+
+    /**
+     * Marks a command of the calling thread's owner as in flight, for {@link #cancel(Object)}, then moves to a fresh
+     * socket first if the current one is stale or dropped.
+     *
+     * @throws JedisConnectionException if the socket is stale and no fresh one can be had: the command fails
+     *                                  rather than run on the server the connector moved away from
+     */
+    private void begin() {
+        this.cancelLock.lock();
+        try {
+            this.cancelled = false;
+            this.executing = true;
+            this.executingOwner = OWNER.get();
+        } finally {
+            this.cancelLock.unlock();
+        }
+        if (this.stale || this.dropped) {
+            this.replaceSocket();
+        }
+    }
+
+    private void end() {
+        this.cancelLock.lock();
+        try {
+            this.executing = false;
+            this.executingOwner = null;
+        } finally {
+            this.cancelLock.unlock();
+        }
+    }
+
+    /**
+     * After a connection failure, a timeout or a cancel, the reply of the failed command may still be on its way:
+     * the socket is dropped, a pooled one destroyed, and a fresh one takes over on the same db.
+     *
+     * @return the exception to throw
+     */
+    private RuntimeException recover(RuntimeException e) {
+        if (this.dropped || !this.jedis.getClient().isBroken()) {
+            return e;
+        }
+        try {
+            this.replaceSocket();
+            LOGGER.log("connection reset after %s", e);
+        } catch (JedisConnectionException connectFailure) {
+            LOGGER.warn("cannot reset connection", connectFailure);
+        }
+        if (this.cancelled) {
+            CancellationException cancellation = new CancellationException("Statement cancelled");
+            cancellation.initCause(e);
+            return cancellation;
+        }
+        return e;
+    }
+
+    /**
+     * Drop the socket, a pooled one destroyed if broken, for a fresh one on the same db. A {@link #reconnect()}
+     * while the fresh socket is opened may have come too late for the connector: that socket is dropped in turn.
+     *
+     * @throws JedisConnectionException if no fresh socket could be had, the old one staying dropped: the next
+     *                                  command tries again
+     */
+    private void replaceSocket() {
+        Jedis old = this.jedis;
+        int db = this.pendingDb >= 0 ? this.pendingDb : old.getDB();
+        if (!this.dropped) {
+            this.dropped = true;
+            try {
+                old.close();
+            } catch (Exception closeFailure) {
+                LOGGER.log("cannot close connection: %s", closeFailure);
+            }
+        }
+        while (true) {
+            // a reconnect from now on asks for yet another socket
+            this.stale = false;
+            Jedis fresh;
+            try {
+                fresh = this.connector.get();
+            } catch (RuntimeException connectFailure) {
+                throw new JedisConnectionException("Cannot reset connection", connectFailure);
+            }
+            try {
+                fresh.getClient().setSoTimeout(this.soTimeout);
+            } catch (RuntimeException e) {
+                fresh.close();
+                throw e;
+            }
+            this.cancelLock.lock();
+            try {
+                if (!this.stale) {
+                    this.jedis = fresh;
+                    this.dropped = false;
+                    this.pendingDb = db == fresh.getDB() ? -1 : db;
+                    return;
+                }
+            } finally {
+                this.cancelLock.unlock();
+            }
+            LOGGER.log("reconnect while connecting, connect again");
+            fresh.close();
+        }
+    }
+
+    /**
+     * A SELECT of the current db is skipped. Switching to a db this connection has already selected is deferred
+     * to the next command; the first switch to any other db is sent at once, so that an invalid index fails here
+     * instead of letting the next commands run on the wrong db.
+     */
     @Override
-    public synchronized void close() {
+    public void select(int dbIndex) {
+        this.lock.lock();
+        try {
+            if (dbIndex == this.jedis.getDB()) {
+                this.pendingDb = -1;
+            } else if (dbIndex >= 0 && this.selectedDbs.get(dbIndex)) {
+                this.pendingDb = dbIndex;
+            } else {
+                if (this.stale || this.dropped) {
+                    this.replaceSocket();
+                }
+                this.jedis.select(dbIndex);
+                this.pendingDb = -1;
+                this.selectedDbs.set(dbIndex);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
         LOGGER.log("close()");
-        this.jedis.close();
+        this.lock.lock();
+        try {
+            this.pendingDb = -1;
+            if (this.dropped) {
+                // already closed, or given back to its pool
+                return;
+            }
+            if (this.pooled && this.jedis.getDB() != this.initialDb) {
+                try {
+                    // the next borrower expects the db of the URL
+                    this.jedis.select(this.initialDb);
+                } catch (Exception e) {
+                    LOGGER.warn("cannot reset db of pooled connection", e);
+                }
+            }
+            // a pooled socket goes back to its pool, or is destroyed if it is broken
+            this.dropped = true;
+            this.jedis.close();
+        } finally {
+            this.lock.unlock();
+        }
     }
 }
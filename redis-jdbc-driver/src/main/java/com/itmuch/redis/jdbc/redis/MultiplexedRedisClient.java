@@ -0,0 +1,507 @@
+package com.itmuch.redis.jdbc.redis;
+
+import com.itmuch.redis.jdbc.AbstractRedisClient;
+import com.itmuch.redis.jdbc.CompiledOp;
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.conf.RedisConnectionInfo;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisClientConfig;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.commands.ProtocolCommand;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.IOUtils;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A client that many threads share: their commands are pipelined over one socket.
+ * <p>
+ * Callers put their commands on a write queue; a writer thread drains it, writing everything queued
+ * before a single flush, and pushes one future per command on the reply queue. Redis replies in order,
+ * so a reader thread completes the futures from the head of that queue. Throughput then grows with
+ * the number of threads instead of being bounded by one round trip per command.
+ * <p>
+ * The db is shared as well: {@link #select(int)}, or a {@code SELECT} statement, switches it for every thread of
+ * the connection.
+ * <p>
+ * The commands that hold or change the state of the socket are rejected, since they would act on the commands
+ * of the other threads: the blocking ones (BLPOP, XREAD BLOCK, WAIT...), which would stall every reply queued
+ * behind them, MULTI/EXEC and WATCH, which would take in the commands of other threads, and the subscriptions,
+ * after which the replies no longer match the commands, as after {@code CLIENT REPLY OFF} or a {@code HELLO}
+ * switching the protocol. Use a plain connection for them.
+ * <p>
+ * A query timeout bounds the wait of the caller for its replies, and a cancel fails the wait of the statement's
+ * caller only: the socket carries the commands of the other threads, so it is never closed for one of them, and
+ * the late reply is dropped when it comes.
+ */
+public class MultiplexedRedisClient extends AbstractRedisClient {
+    private final static Logger LOGGER = new Logger(MultiplexedRedisClient.class);
+
+    /**
+     * commands that cannot share the socket, see the class comment
+     */
+    private static final Set<String> UNSHAREABLE_COMMANDS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        UNSHAREABLE_COMMANDS.addAll(Arrays.asList(
+                "BLPOP", "BRPOP", "BRPOPLPUSH", "BLMOVE", "BLMPOP", "BZPOPMIN", "BZPOPMAX", "BZMPOP", "WAIT", "WAITAOF",
+                "MULTI", "EXEC", "DISCARD", "WATCH", "UNWATCH",
+                "SUBSCRIBE", "PSUBSCRIBE", "SSUBSCRIBE", "UNSUBSCRIBE", "PUNSUBSCRIBE", "SUNSUBSCRIBE", "MONITOR",
+                "HELLO", "RESET", "QUIT"
+        ));
+    }
+
+    private static final byte[] OK = SafeEncoder.encode("OK");
+
+    /**
+     * the deadline of the query timeout of the calling thread, in {@link System#nanoTime()}, see
+     * {@link #withQueryTimeout(int, Call)}
+     */
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+    /**
+     * the owner of the calling thread, see {@link #withOwner(Object, Call)}
+     */
+    private static final ThreadLocal<Object> OWNER = new ThreadLocal<>();
+
+    private final MultiplexedConnection connection;
+    private final BlockingQueue<Request> writeQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<CompletableFuture<Object>> replyQueue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final Thread reader;
+    /**
+     * how long a caller waits for its reply, in milliseconds, 0 for ever
+     */
+    private volatile int timeout;
+
+    private volatile int db;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * the replies waited for on behalf of an owner, failed by {@link #cancel(Object)}
+     */
+    private final ConcurrentMap<CompletableFuture<Object>, Object> awaitedByOwner = new ConcurrentHashMap<>();
+
+    public MultiplexedRedisClient(RedisConnectionInfo connectionInfo) {
+        super(connectionInfo);
+        this.timeout = connectionInfo.getTimeout();
+        JedisClientConfig config = DefaultJedisClientConfig.builder()
+                .connectionTimeoutMillis(this.timeout)
+                .socketTimeoutMillis(this.timeout)
+                .ssl(connectionInfo.isSsl())
+                .build();
+        this.connection = new MultiplexedConnection(new HostAndPort(connectionInfo.getHost(), connectionInfo.getPort()), config);
+
+        try {
+            this.connection.connect();
+            // handshake before the socket is shared
+            if (connectionInfo.getUsername() != null) {
+                this.connection.sendCommand(Protocol.Command.AUTH, connectionInfo.getUsername(), connectionInfo.getPassword());
+                this.connection.getOne();
+            } else if (connectionInfo.getPassword() != null) {
+                this.connection.sendCommand(Protocol.Command.AUTH, connectionInfo.getPassword());
+                this.connection.getOne();
+            }
+            if (connectionInfo.getDbIndex() != 0) {
+                this.connection.sendCommand(Protocol.Command.SELECT, String.valueOf(connectionInfo.getDbIndex()));
+                this.connection.getOne();
+            }
+            // the reader waits for replies as long as the connection lives, callers time out on their own
+            this.connection.setSoTimeout(0);
+        } catch (RuntimeException e) {
+            this.connection.close();
+            throw e;
+        }
+        this.db = connectionInfo.getDbIndex();
+
+        String name = connectionInfo.getHost() + ":" + connectionInfo.getPort();
+        this.writer = new Thread(this::write, "redis-jdbc-writer-" + name);
+        this.writer.setDaemon(true);
+        this.reader = new Thread(this::read, "redis-jdbc-reader-" + name);
+        this.reader.setDaemon(true);
+        this.writer.start();
+        this.reader.start();
+    }
+
+    @Override
+    protected Object sendCommand(CompiledOp compiledOp) {
+        checkShareable(compiledOp);
+        int selectedDb = selectedDb(compiledOp);
+        if (selectedDb >= 0) {
+            this.select(selectedDb);
+            return OK;
+        }
+        CompletableFuture<Object> future = this.submit(compiledOp.getCommand(), compiledOp.getParams());
+        try {
+            return this.await(future);
+        } catch (JedisDataException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            String rawSql = compiledOp.getOp().getOriginSql();
+            LOGGER.warn("command on db %s `%s` cannot execute.", this.db, rawSql, e);
+            throw new RuntimeException(String.format("command on db %s `%s` cannot execute.", this.db, rawSql), e);
+        }
+    }
+
+    /**
+     * Returns at once. The future is completed in {@link ForkJoinPool#commonPool()}, as are the stages chained
+     * to it without an executor, never by the reader thread: a callback blocking there, on another command
+     * of this connection for instance, would stop every reply of the connection.
+     */
+    @Override
+    protected CompletableFuture<Object> sendCommandAsync(CompiledOp compiledOp) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        try {
+            checkShareable(compiledOp);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(toSQLException(e));
+            return result;
+        }
+        int selectedDb = selectedDb(compiledOp);
+        this.submit(compiledOp.getCommand(), compiledOp.getParams()).whenCompleteAsync((reply, e) -> {
+            if (e == null) {
+                if (selectedDb >= 0) {
+                    this.db = selectedDb;
+                }
+                result.complete(reply);
+            } else {
+                result.completeExceptionally(toSQLException(e));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    protected List<Object> pipeline(List<CompiledOp> compiledOps) {
+        for (CompiledOp compiledOp : compiledOps) {
+            checkShareable(compiledOp);
+        }
+        List<CompletableFuture<Object>> futures = new ArrayList<>(compiledOps.size());
+        for (CompiledOp compiledOp : compiledOps) {
+            futures.add(this.submit(compiledOp.getCommand(), compiledOp.getParams()));
+        }
+        List<Object> replies = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                replies.add(this.await(futures.get(i)));
+                int selectedDb = selectedDb(compiledOps.get(i));
+                if (selectedDb >= 0) {
+                    this.db = selectedDb;
+                }
+            } catch (JedisDataException e) {
+                replies.add(e);
+            }
+        }
+        return replies;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the command cannot share the socket with other threads
+     */
+    private static void checkShareable(CompiledOp compiledOp) {
+        String command = compiledOp.getOp().getCommand();
+        boolean shareable = !UNSHAREABLE_COMMANDS.contains(command);
+        byte[][] params = compiledOp.getParams();
+        if (shareable && "CLIENT".equalsIgnoreCase(command) && params.length > 0 && params[0] != null
+                && "REPLY".equalsIgnoreCase(SafeEncoder.encode(params[0]))) {
+            // OFF or SKIP: the replies no longer match the commands
+            shareable = false;
+        }
+        if (shareable && ("XREAD".equalsIgnoreCase(command) || "XREADGROUP".equalsIgnoreCase(command))) {
+            // the options come before STREAMS, the keys and ids after it
+            for (byte[] param : compiledOp.getParams()) {
+                String option = param == null ? "" : SafeEncoder.encode(param);
+                if ("STREAMS".equalsIgnoreCase(option)) {
+                    break;
+                }
+                if ("BLOCK".equalsIgnoreCase(option)) {
+                    shareable = false;
+                    break;
+                }
+            }
+        }
+        if (!shareable) {
+            throw new UnsupportedOperationException(String.format(
+                    "%s cannot run on a multiplexed connection, use a plain one. sql = %s",
+                    command.toUpperCase(), compiledOp.getOp().getOriginSql()));
+        }
+    }
+
+    @Override
+    public void select(int dbIndex) {
+        if (dbIndex == this.db) {
+            return;
+        }
+        this.await(this.submit(Protocol.Command.SELECT, new byte[][]{Protocol.toByteArray(dbIndex)}));
+        this.db = dbIndex;
+    }
+
+    @Override
+    public boolean ping(int timeoutMillis) {
+        CompletableFuture<Object> future = this.submit(Protocol.Command.PING, new byte[0][]);
+        try {
+            Object reply = timeoutMillis > 0 ? future.get(timeoutMillis, TimeUnit.MILLISECONDS) : this.await(future);
+            return reply instanceof byte[] && "PONG".equals(SafeEncoder.encode((byte[]) reply));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * The replies of the call are waited for until the deadline at most, instead of the network timeout.
+     */
+    @Override
+    public <T> T withQueryTimeout(int timeoutMillis, Call<T> call) throws SQLException {
+        Long previous = DEADLINE.get();
+        DEADLINE.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                DEADLINE.remove();
+            } else {
+                DEADLINE.set(previous);
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsQueryTimeout() {
+        return true;
+    }
+
+    @Override
+    public <T> T withOwner(Object owner, Call<T> call) throws SQLException {
+        Object previous = OWNER.get();
+        OWNER.set(owner);
+        try {
+            return call.call();
+        } finally {
+            if (previous == null) {
+                OWNER.remove();
+            } else {
+                OWNER.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Fails the replies the owner is waiting for: its caller fails with SQLState {@code 57014}, the commands stay
+     * on the socket and their replies are dropped when they come.
+     */
+    @Override
+    public void cancel(Object owner) {
+        for (Map.Entry<CompletableFuture<Object>, Object> awaited : this.awaitedByOwner.entrySet()) {
+            if (awaited.getValue() == owner) {
+                LOGGER.log("cancel command in flight");
+                awaited.getKey().completeExceptionally(new CancellationException("Statement cancelled"));
+            }
+        }
+    }
+
+    /**
+     * Bounds the wait of each caller for its reply; the socket itself keeps waiting for the replies in flight.
+     */
+    @Override
+    public void setNetworkTimeout(int timeoutMillis) {
+        this.timeout = timeoutMillis;
+    }
+
+    @Override
+    public int getNetworkTimeout() {
+        return this.timeout;
+    }
+
+    @Override
+    public void close() {
+        LOGGER.log("close()");
+        this.shutdown(new JedisConnectionException("Connection is closed."));
+    }
+
+    /**
+     * Queue a command for the writer.
+     *
+     * @return completed with the raw reply, or exceptionally with the {@link JedisDataException} Redis replied
+     */
+    CompletableFuture<Object> submit(ProtocolCommand command, byte[][] params) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        if (this.closed.get()) {
+            future.completeExceptionally(new JedisConnectionException("Connection is closed."));
+            return future;
+        }
+        this.writeQueue.add(new Request(command, params, future));
+        if (this.closed.get()) {
+            // raced with close, which may have drained the queue already
+            future.completeExceptionally(new JedisConnectionException("Connection is closed."));
+        }
+        return future;
+    }
+
+    /**
+     * Wait for the reply until the query timeout of the caller, or the network timeout if it has none.
+     */
+    private Object await(CompletableFuture<Object> future) {
+        Object owner = OWNER.get();
+        if (owner != null) {
+            this.awaitedByOwner.put(future, owner);
+        }
+        Long deadline = DEADLINE.get();
+        long timeoutNanos = deadline != null
+                ? Math.max(1, deadline - System.nanoTime())
+                : TimeUnit.MILLISECONDS.toNanos(this.timeout);
+        try {
+            return timeoutNanos > 0 ? future.get(timeoutNanos, TimeUnit.NANOSECONDS) : future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new JedisConnectionException(cause);
+        } catch (TimeoutException e) {
+            // the reply still completes this future later, keeping the queue in step
+            throw new JedisConnectionException("No reply within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JedisConnectionException(e);
+        } finally {
+            if (owner != null) {
+                this.awaitedByOwner.remove(future);
+            }
+        }
+    }
+
+    /**
+     * Writer loop: everything queued is written before one flush.
+     */
+    private void write() {
+        List<Request> requests = new ArrayList<>();
+        try {
+            while (!this.closed.get()) {
+                requests.add(this.writeQueue.take());
+                this.writeQueue.drainTo(requests);
+                for (Request request : requests) {
+                    // queued before it is written, the reply cannot come first
+                    this.replyQueue.add(request.future);
+                    this.connection.sendCommand(request.command, request.params);
+                }
+                requests.clear();
+                this.connection.flush();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (RuntimeException e) {
+            if (!this.closed.get()) {
+                LOGGER.warn("cannot write to multiplexed connection", e);
+            }
+            for (Request request : requests) {
+                request.future.completeExceptionally(e);
+            }
+            this.shutdown(e);
+        }
+    }
+
+    /**
+     * Reader loop: replies come in the order the commands were written.
+     */
+    private void read() {
+        try {
+            while (!this.closed.get()) {
+                Object reply;
+                try {
+                    reply = this.connection.read();
+                } catch (JedisDataException e) {
+                    this.next().completeExceptionally(e);
+                    continue;
+                }
+                this.next().complete(reply);
+            }
+        } catch (RuntimeException e) {
+            if (!this.closed.get()) {
+                LOGGER.warn("cannot read from multiplexed connection", e);
+            }
+            this.shutdown(e);
+        }
+    }
+
+    private CompletableFuture<Object> next() {
+        CompletableFuture<Object> future = this.replyQueue.poll();
+        if (future == null) {
+            throw new JedisConnectionException("Reply without a pending command");
+        }
+        return future;
+    }
+
+    /**
+     * Close the socket and fail every command still waiting.
+     */
+    private void shutdown(RuntimeException cause) {
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+        this.writer.interrupt();
+        // not disconnect(): it would flush concurrently with the writer
+        IOUtils.closeQuietly(this.connection.getSocket());
+
+        List<Request> unsent = new ArrayList<>();
+        this.writeQueue.drainTo(unsent);
+        for (Request request : unsent) {
+            request.future.completeExceptionally(cause);
+        }
+        CompletableFuture<Object> future;
+        while ((future = this.replyQueue.poll()) != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private static class Request {
+        private final ProtocolCommand command;
+        private final byte[][] params;
+        private final CompletableFuture<Object> future;
+
+        Request(ProtocolCommand command, byte[][] params, CompletableFuture<Object> future) {
+            this.command = command;
+            this.params = params;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Opens up the flush and the read that {@link Connection#getOne()} couples.
+     */
+    private static class MultiplexedConnection extends Connection {
+        MultiplexedConnection(HostAndPort hostAndPort, JedisClientConfig config) {
+            super(hostAndPort, config);
+        }
+
+        @Override
+        protected void flush() {
+            super.flush();
+        }
+
+        Object read() {
+            return this.readProtocolWithCheckingBroken();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.itmuch.redis.jdbc.redis;
 
+import com.itmuch.redis.jdbc.AbstractRedisClient;
 import com.itmuch.redis.jdbc.Logger;
 import com.itmuch.redis.jdbc.RedisConnection;
 import com.itmuch.redis.jdbc.conf.RedisConnectionInfo;
@@ -17,7 +18,7 @@ public class RedisDriver implements Driver {
         try {
             DriverManager.registerDriver(new RedisDriver());
         } catch (Exception e) {
-            LOGGER.log("Can't register driver!");
+            LOGGER.warn("Can't register driver!", e);
             throw new RuntimeException("Can't register driver!", e);
         }
     }
@@ -35,6 +36,60 @@ public class RedisDriver implements Driver {
         String rawUrl = url.replaceFirst("jdbc:", "");
         RedisConnectionInfo redisConnectionInfo = new RedisConnectionInfo(rawUrl, info);
 
+        int dbIndex = redisConnectionInfo.getDbIndex();
+
+        if (redisConnectionInfo.isMultiplexed()) {
+            if (!redisConnectionInfo.getReplicas().isEmpty()) {
+                throw new SQLException("replicas cannot be used with a multiplexed connection");
+            }
+            try {
+                return new RedisConnection(new MultiplexedRedisClient(redisConnectionInfo), dbIndex + "", info);
+            } catch (Exception e) {
+                LOGGER.log("Cannot init RedisConnection %s", e);
+                throw new SQLException("Cannot init RedisConnection", e);
+            }
+        }
+        if (redisConnectionInfo.isPool()) {
+            try {
+                JedisRedisClient client = new JedisRedisClient(
+                        () -> JedisPools.borrow(redisConnectionInfo), redisConnectionInfo, true);
+                return newConnection(client, redisConnectionInfo, info);
+            } catch (Exception e) {
+                LOGGER.log("Cannot borrow RedisConnection %s", e);
+                throw new SQLException("Cannot borrow RedisConnection", e);
+            }
+        }
+
+        try {
+            JedisRedisClient client = new JedisRedisClient(() -> open(redisConnectionInfo), redisConnectionInfo, false);
+            return newConnection(client, redisConnectionInfo, info);
+        } catch (Exception e) {
+            LOGGER.log("Cannot init RedisConnection %s", e);
+            throw new SQLException("Cannot init RedisConnection", e);
+        }
+    }
+
+    /**
+     * A connection on the client of the primary, wrapped to read from the replicas if the URL lists some.
+     * The client is closed if that fails, giving a borrowed socket back to its pool.
+     */
+    private static Connection newConnection(JedisRedisClient primary, RedisConnectionInfo redisConnectionInfo,
+                                            Properties info) {
+        try {
+            AbstractRedisClient client = redisConnectionInfo.getReplicas().isEmpty()
+                    ? primary
+                    : new ReplicatedRedisClient(primary, redisConnectionInfo);
+            return new RedisConnection(client, redisConnectionInfo.getDbIndex() + "", info);
+        } catch (RuntimeException e) {
+            primary.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A new socket, authenticated and on the db of the URL; also used to replace a socket after a timeout.
+     */
+    private static Jedis open(RedisConnectionInfo redisConnectionInfo) {
         String host = redisConnectionInfo.getHost();
         int port = redisConnectionInfo.getPort();
         int dbIndex = redisConnectionInfo.getDbIndex();
@@ -43,8 +98,8 @@ public class RedisDriver implements Driver {
         String username = redisConnectionInfo.getUsername();
         String password = redisConnectionInfo.getPassword();
 
+        final Jedis jedis = new Jedis(host, port, timeout, timeout, ssl);
         try {
-            final Jedis jedis = new Jedis(host, port, timeout, timeout, ssl);
             jedis.connect();
 
             if (username != null) {
@@ -58,11 +113,10 @@ public class RedisDriver implements Driver {
 //            if (clientName != null) {
 //                jedis.clientSetname(clientName);
 //            }
-
-            return new RedisConnection(new JedisRedisClient(jedis), dbIndex + "", info);
-        } catch (Exception e) {
-            LOGGER.log("Cannot init RedisConnection %s", e);
-            throw new SQLException("Cannot init RedisConnection", e);
+            return jedis;
+        } catch (RuntimeException e) {
+            jedis.close();
+            throw e;
         }
     }
 
@@ -93,8 +147,6 @@ public class RedisDriver implements Driver {
 
     @Override
     public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
-        // ref: com.mysql.cj.jdbc.NonRegisteringDriver.getParentLogger
-        LOGGER.log("getParentLogger not implemented");
-        throw new SQLFeatureNotSupportedException("getParentLogger not implemented");
+        return Logger.getParentLogger();
     }
 }
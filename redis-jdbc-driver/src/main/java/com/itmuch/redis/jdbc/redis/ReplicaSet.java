@@ -0,0 +1,153 @@
+package com.itmuch.redis.jdbc.redis;
+
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.ReplicaBalancer;
+import com.itmuch.redis.jdbc.conf.RedisConnectionInfo;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The replicas of a primary, shared by the connections of {@link RedisDriver} to the same URL and credentials:
+ * a socket pool per replica, the health of each replica, and the balancer picking the replica of a read.
+ * <p>
+ * A replica is healthy while it answers and, if it still is a replica, while its link to the primary is up;
+ * this is checked every {@code replicaHealthCheckMillis} in the background. A replica failing a read is down
+ * at once, until the next check finds it healthy again.
+ * <p>
+ * Like {@link JedisPools}, a replica set is created by the first connection to its URL, with that connection's
+ * properties, and lives as long as the driver.
+ */
+class ReplicaSet {
+    private final static Logger LOGGER = new Logger(ReplicaSet.class);
+
+    private static final ConcurrentMap<List<Object>, ReplicaSet> REPLICA_SETS = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService HEALTH_CHECKER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "redis-jdbc-replica-health-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Replica> replicas;
+    private final ReplicaBalancer<Replica> balancer;
+
+    private ReplicaSet(RedisConnectionInfo info) {
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(info.getPoolMaxTotal());
+        poolConfig.setMaxIdle(info.getPoolMaxIdle());
+        poolConfig.setMinIdle(info.getPoolMinIdle());
+        poolConfig.setMaxWaitMillis(info.getPoolMaxWaitMillis());
+        poolConfig.setMinEvictableIdleTimeMillis(info.getPoolMinEvictableIdleTimeMillis());
+        poolConfig.setTimeBetweenEvictionRunsMillis(info.getPoolTimeBetweenEvictionRunsMillis());
+
+        this.replicas = new ArrayList<>(info.getReplicas().size());
+        for (HostAndPort node : info.getReplicas()) {
+            this.replicas.add(new Replica(node, new JedisPool(poolConfig, node.getHost(), node.getPort(),
+                    info.getTimeout(), info.getTimeout(), info.getUsername(), info.getPassword(), info.getDbIndex(),
+                    null, info.isSsl(), null, null, null)));
+        }
+        this.balancer = new ReplicaBalancer<>(info.getReplicaSelection());
+    }
+
+    static ReplicaSet of(RedisConnectionInfo info) {
+        List<Object> key = Arrays.asList(
+                info.getHost(), info.getPort(), info.getReplicas(), info.getDbIndex(),
+                info.getUsername(), info.getPassword(), info.isSsl(), info.getTimeout()
+        );
+        return REPLICA_SETS.computeIfAbsent(key, k -> {
+            LOGGER.log("create replica set %s of %s:%s", info.getReplicas(), info.getHost(), info.getPort());
+            ReplicaSet replicaSet = new ReplicaSet(info);
+            long period = info.getReplicaHealthCheckMillis();
+            if (period > 0) {
+                HEALTH_CHECKER.scheduleWithFixedDelay(replicaSet::checkHealth, 0, period, TimeUnit.MILLISECONDS);
+            }
+            return replicaSet;
+        });
+    }
+
+    /**
+     * @return a healthy replica, or null if none is
+     */
+    Replica choose() {
+        List<Replica> healthy = this.healthy();
+        return healthy.isEmpty() ? null : this.balancer.choose(healthy);
+    }
+
+    /**
+     * @param preferred kept if still healthy
+     * @return the same replica for all the pages of a SCAN cursor, or null if none is healthy
+     */
+    Replica stick(Replica preferred) {
+        return preferred != null && preferred.healthy ? preferred : this.choose();
+    }
+
+    private List<Replica> healthy() {
+        List<Replica> healthy = new ArrayList<>(this.replicas.size());
+        for (Replica replica : this.replicas) {
+            if (replica.healthy) {
+                healthy.add(replica);
+            }
+        }
+        return healthy;
+    }
+
+    void record(Replica replica, long nanos) {
+        this.balancer.record(replica, nanos);
+    }
+
+    /**
+     * A read failed on the replica for lack of a connection: it serves no read until the next health check.
+     */
+    void failed(Replica replica, RuntimeException e) {
+        LOGGER.log("replica %s down: %s", replica.node, e);
+        replica.healthy = false;
+        this.balancer.forget(replica);
+    }
+
+    private void checkHealth() {
+        for (Replica replica : this.replicas) {
+            boolean healthy;
+            try (Jedis jedis = replica.pool.getResource()) {
+                String replication = jedis.info("replication");
+                // a replica promoted meanwhile is as good a source of reads
+                healthy = replication.contains("role:master") || replication.contains("master_link_status:up");
+            } catch (RuntimeException e) {
+                healthy = false;
+            }
+            if (healthy != replica.healthy) {
+                LOGGER.log("replica %s %s", replica.node, healthy ? "up" : "down");
+                replica.healthy = healthy;
+            }
+        }
+    }
+
+    static class Replica {
+        private final HostAndPort node;
+        private final JedisPool pool;
+        private volatile boolean healthy = true;
+
+        Replica(HostAndPort node, JedisPool pool) {
+            this.node = node;
+            this.pool = pool;
+        }
+
+        HostAndPort getNode() {
+            return this.node;
+        }
+
+        JedisPool getPool() {
+            return this.pool;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.itmuch.redis.jdbc.redis;
+
+import com.itmuch.redis.jdbc.AbstractRedisClient;
+import com.itmuch.redis.jdbc.CompiledOp;
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.ReadOnlyCommands;
+import com.itmuch.redis.jdbc.conf.RedisConnectionInfo;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A connection to a primary with replicas: writes go to the primary, through a {@link JedisRedisClient},
+ * reads to a healthy replica of the {@link ReplicaSet}.
+ * <p>
+ * The read-only commands go to the replicas if the {@code readFromReplicas} property is set; on a read-only
+ * connection every command does, a write then being rejected by the replica. With no healthy replica,
+ * the primary serves them. A replica may lag behind the primary. From {@code MULTI} or {@code WATCH} to
+ * {@code EXEC}, {@code DISCARD} or {@code UNWATCH}, every command goes to the primary, so that the reads of a
+ * transaction see its writes and run in it. The commands changing the state of the connection, such as
+ * {@code SELECT} or {@code CLIENT}, go to the primary too, a {@code SELECT} through {@link #select(int)} so that
+ * the reads on the replicas follow it.
+ * <p>
+ * Query timeouts and cancel apply to the commands on the primary; a read on a replica is bounded by
+ * the {@code timeout} property.
+ */
+public class ReplicatedRedisClient extends AbstractRedisClient {
+    private final static Logger LOGGER = new Logger(ReplicatedRedisClient.class);
+
+    /**
+     * cursor commands, whose pages all go to the same replica
+     */
+    private static final Set<String> CURSOR_COMMANDS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        CURSOR_COMMANDS.addAll(Arrays.asList("SCAN", "HSCAN", "SSCAN", "ZSCAN"));
+    }
+
+    /**
+     * commands opening a transaction on the primary, and those ending it
+     */
+    private static final Set<String> TRANSACTION_BEGIN_COMMANDS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private static final Set<String> TRANSACTION_END_COMMANDS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        TRANSACTION_BEGIN_COMMANDS.addAll(Arrays.asList("MULTI", "WATCH"));
+        TRANSACTION_END_COMMANDS.addAll(Arrays.asList("EXEC", "DISCARD", "UNWATCH"));
+    }
+
+    /**
+     * commands changing the state of the connection, which would otherwise change a pooled replica socket
+     */
+    private static final Set<String> CONNECTION_STATE_COMMANDS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        CONNECTION_STATE_COMMANDS.addAll(Arrays.asList(
+                "SELECT", "CLIENT", "HELLO", "AUTH", "RESET", "READONLY", "READWRITE", "QUIT"
+        ));
+    }
+
+    private static final byte[] OK = SafeEncoder.encode("OK");
+
+    private final JedisRedisClient primary;
+    private final ReplicaSet replicaSet;
+    private final boolean readFromReplicas;
+    private final int initialDb;
+    private volatile int db;
+    private volatile boolean readOnly = false;
+    /**
+     * whether a {@code MULTI} or {@code WATCH} is open on the primary
+     */
+    private volatile boolean inTransaction = false;
+    /**
+     * the replica of the SCAN cursors of this connection
+     */
+    private volatile ReplicaSet.Replica cursorReplica;
+
+    public ReplicatedRedisClient(JedisRedisClient primary, RedisConnectionInfo connectionInfo) {
+        super(connectionInfo);
+        this.primary = primary;
+        this.replicaSet = ReplicaSet.of(connectionInfo);
+        this.readFromReplicas = connectionInfo.isReadFromReplicas();
+        this.initialDb = connectionInfo.getDbIndex();
+        this.db = this.initialDb;
+    }
+
+    @Override
+    protected Object sendCommand(CompiledOp compiledOp) {
+        int selectedDb = selectedDb(compiledOp);
+        if (selectedDb >= 0) {
+            this.select(selectedDb);
+            return OK;
+        }
+        String command = compiledOp.getOp().getCommand();
+        if (TRANSACTION_BEGIN_COMMANDS.contains(command) || TRANSACTION_END_COMMANDS.contains(command)) {
+            try {
+                return this.primary.sendCommand(compiledOp);
+            } finally {
+                // an EXEC or DISCARD ends the transaction even when it fails
+                this.inTransaction = inTransaction(this.inTransaction, command);
+            }
+        }
+        if (!this.readsReplica(compiledOp)) {
+            return this.primary.sendCommand(compiledOp);
+        }
+        ReplicaSet.Replica replica = this.replicaOf(compiledOp);
+        if (replica == null) {
+            return this.primary.sendCommand(compiledOp);
+        }
+        long start = System.nanoTime();
+        Object reply;
+        try {
+            reply = this.onReplica(replica, compiledOp);
+        } catch (JedisConnectionException e) {
+            this.replicaSet.failed(replica, e);
+            return this.primary.sendCommand(compiledOp);
+        }
+        this.replicaSet.record(replica, System.nanoTime() - start);
+        if (reply instanceof JedisDataException) {
+            String rawSql = compiledOp.getOp().getOriginSql();
+            LOGGER.log("command `%s` failed on replica %s: %s", rawSql, replica.getNode(), ((JedisDataException) reply).getMessage());
+            throw new RuntimeException(String.format("command `%s` cannot execute.", rawSql), (JedisDataException) reply);
+        }
+        return reply;
+    }
+
+    /**
+     * One pipeline for the reads, on one replica, and one for the rest, on the primary. After a command changing
+     * the state of the connection, the rest of the ops go to the primary.
+     */
+    @Override
+    protected List<Object> pipeline(List<CompiledOp> compiledOps) {
+        List<Integer> reads = new ArrayList<>();
+        List<Integer> writes = new ArrayList<>();
+        boolean inTransaction = this.inTransaction;
+        boolean stateChanged = false;
+        for (int i = 0; i < compiledOps.size(); i++) {
+            CompiledOp compiledOp = compiledOps.get(i);
+            String command = compiledOp.getOp().getCommand();
+            stateChanged |= CONNECTION_STATE_COMMANDS.contains(command);
+            boolean onPrimary = inTransaction || stateChanged || TRANSACTION_BEGIN_COMMANDS.contains(command)
+                    || TRANSACTION_END_COMMANDS.contains(command) || !this.readsReplica(compiledOp);
+            (onPrimary ? writes : reads).add(i);
+            inTransaction = inTransaction(inTransaction, command);
+        }
+        this.inTransaction = inTransaction;
+        ReplicaSet.Replica replica = reads.isEmpty() ? null : this.replicaSet.choose();
+        if (replica == null) {
+            return this.selected(compiledOps, this.primary.pipeline(compiledOps));
+        }
+
+        Object[] replies = new Object[compiledOps.size()];
+        if (!writes.isEmpty()) {
+            putReplies(replies, writes, this.primary.pipeline(select(compiledOps, writes)));
+        }
+        List<CompiledOp> readOps = select(compiledOps, reads);
+        List<Object> readReplies;
+        try {
+            readReplies = this.onReplica(replica, readOps);
+        } catch (JedisConnectionException e) {
+            this.replicaSet.failed(replica, e);
+            readReplies = this.primary.pipeline(readOps);
+        }
+        putReplies(replies, reads, readReplies);
+        return this.selected(compiledOps, Arrays.asList(replies));
+    }
+
+    /**
+     * A {@code SELECT} in the pipeline moved the primary: the next reads on the replicas follow it.
+     */
+    private List<Object> selected(List<CompiledOp> compiledOps, List<Object> replies) {
+        for (int i = 0; i < compiledOps.size(); i++) {
+            int db = selectedDb(compiledOps.get(i));
+            if (db >= 0 && !(replies.get(i) instanceof JedisDataException)) {
+                this.db = db;
+            }
+        }
+        return replies;
+    }
+
+    /**
+     * @return whether a transaction is open on the primary after the command
+     */
+    private static boolean inTransaction(boolean inTransaction, String command) {
+        if (TRANSACTION_BEGIN_COMMANDS.contains(command)) {
+            return true;
+        }
+        return inTransaction && !TRANSACTION_END_COMMANDS.contains(command);
+    }
+
+    private static List<CompiledOp> select(List<CompiledOp> compiledOps, List<Integer> indexes) {
+        List<CompiledOp> selected = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            selected.add(compiledOps.get(index));
+        }
+        return selected;
+    }
+
+    private static void putReplies(Object[] replies, List<Integer> indexes, List<Object> selectedReplies) {
+        for (int i = 0; i < indexes.size(); i++) {
+            replies[indexes.get(i)] = selectedReplies.get(i);
+        }
+    }
+
+    private Object onReplica(ReplicaSet.Replica replica, CompiledOp compiledOp) {
+        return this.onReplica(replica, Collections.singletonList(compiledOp)).get(0);
+    }
+
+    /**
+     * Pipeline the ops on a socket of the replica, on the db of this connection: the socket is switched to it
+     * and back in the same round trip. If the replica refuses a {@code SELECT}, the ops fail: they ran on
+     * another db, and a socket left on another db is dropped from the pool.
+     *
+     * @return one reply per op, errors replied by Redis as {@link JedisDataException}
+     */
+    private List<Object> onReplica(ReplicaSet.Replica replica, List<CompiledOp> compiledOps) {
+        int db = this.db;
+        boolean switchDb = db != this.initialDb;
+        Jedis jedis = replica.getPool().getResource();
+        boolean leftOnOtherDb = false;
+        try {
+            Pipeline pipeline = jedis.pipelined();
+            if (switchDb) {
+                pipeline.select(db);
+            }
+            for (CompiledOp compiledOp : compiledOps) {
+                pipeline.sendCommand(compiledOp.getCommand(), compiledOp.getParams());
+            }
+            if (switchDb) {
+                pipeline.select(this.initialDb);
+            }
+            List<Object> replies = pipeline.syncAndReturnAll();
+            if (!switchDb) {
+                return replies;
+            }
+            Object selected = replies.get(0);
+            Object restored = replies.get(replies.size() - 1);
+            leftOnOtherDb = restored instanceof JedisDataException && !(selected instanceof JedisDataException);
+            if (selected instanceof JedisDataException || restored instanceof JedisDataException) {
+                JedisDataException e = (JedisDataException) (selected instanceof JedisDataException ? selected : restored);
+                throw new RuntimeException(String.format("Cannot select db %s on replica %s.",
+                        selected instanceof JedisDataException ? db : this.initialDb, replica.getNode()), e);
+            }
+            return replies.subList(1, replies.size() - 1);
+        } finally {
+            if (leftOnOtherDb) {
+                replica.getPool().returnBrokenResource(jedis);
+            } else {
+                jedis.close();
+            }
+        }
+    }
+
+    /**
+     * Whether the op goes to a replica: any op of a read-only connection, the reads of the others if
+     * {@code readFromReplicas} is set, none while a transaction is open nor any changing the state of the connection.
+     */
+    private boolean readsReplica(CompiledOp compiledOp) {
+        if (this.inTransaction || CONNECTION_STATE_COMMANDS.contains(compiledOp.getOp().getCommand())) {
+            return false;
+        }
+        if (this.readOnly) {
+            return true;
+        }
+        return this.readFromReplicas && ReadOnlyCommands.contains(compiledOp.getOp().getCommand());
+    }
+
+    /**
+     * @return the replica to send the op to, the same one for all the pages of the cursors; null if none is healthy
+     */
+    private ReplicaSet.Replica replicaOf(CompiledOp compiledOp) {
+        if (!CURSOR_COMMANDS.contains(compiledOp.getOp().getCommand())) {
+            return this.replicaSet.choose();
+        }
+        ReplicaSet.Replica replica = this.replicaSet.stick(this.cursorReplica);
+        this.cursorReplica = replica;
+        return replica;
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public void select(int dbIndex) {
+        this.primary.select(dbIndex);
+        this.db = dbIndex;
+    }
+
+    @Override
+    public <T> T withQueryTimeout(int timeoutMillis, Call<T> call) throws SQLException {
+        return this.primary.withQueryTimeout(timeoutMillis, call);
+    }
+
+    @Override
+    public boolean supportsQueryTimeout() {
+        return this.primary.supportsQueryTimeout();
+    }
+
+    @Override
+    public <T> T withOwner(Object owner, Call<T> call) throws SQLException {
+        return this.primary.withOwner(owner, call);
+    }
+
+    @Override
+    public void cancel(Object owner) {
+        this.primary.cancel(owner);
+    }
+
+    /**
+     * Probes the primary; the replicas have their own health check.
+     */
+    @Override
+    public boolean ping(int timeoutMillis) {
+        return this.primary.ping(timeoutMillis);
+    }
+
+    @Override
+    public void setNetworkTimeout(int timeoutMillis) {
+        this.primary.setNetworkTimeout(timeoutMillis);
+    }
+
+    @Override
+    public int getNetworkTimeout() {
+        return this.primary.getNetworkTimeout();
+    }
+
+    @Override
+    public void close() {
+        this.primary.close();
+    }
+}
@@ -0,0 +1,76 @@
+package com.itmuch.redis.jdbc.sentinel;
+
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.RedisConnection;
+import com.itmuch.redis.jdbc.conf.RedisSentinelConnectionInfo;
+
+import java.sql.*;
+import java.util.Properties;
+
+public class RedisSentinelDriver implements Driver {
+    private final static Logger LOGGER = new Logger(RedisSentinelDriver.class);
+
+    private static final String REDIS_SENTINEL_JDBC_PREFIX = "jdbc:redis-sentinel:";
+
+    static {
+        try {
+            DriverManager.registerDriver(new RedisSentinelDriver());
+        } catch (Exception e) {
+            LOGGER.warn("Can't register driver!", e);
+            throw new RuntimeException("Can't register driver!", e);
+        }
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!this.acceptsURL(url)) {
+            LOGGER.log("wrong url. url is %s", url);
+            return null;
+        }
+        if (info == null) {
+            info = new Properties();
+        }
+
+        String rawUrl = url.replaceFirst("jdbc:", "");
+        RedisSentinelConnectionInfo connectionInfo = new RedisSentinelConnectionInfo(rawUrl, info);
+
+        try {
+            SentinelMaster master = SentinelMaster.of(connectionInfo);
+            SentinelRedisClient client = new SentinelRedisClient(master, connectionInfo);
+            return new RedisConnection(client, connectionInfo.getDbIndex() + "", info);
+        } catch (Exception e) {
+            LOGGER.log("Cannot init RedisConnection %s", e);
+            throw new SQLException("Cannot init RedisConnection", e);
+        }
+    }
+
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+        return url.toLowerCase().startsWith(REDIS_SENTINEL_JDBC_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return Logger.getParentLogger();
+    }
+}
@@ -0,0 +1,223 @@
+package com.itmuch.redis.jdbc.sentinel;
+
+import com.itmuch.redis.jdbc.Logger;
+import com.itmuch.redis.jdbc.conf.RedisSentinelConnectionInfo;
+import com.itmuch.redis.jdbc.redis.JedisRedisClient;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The master of a Sentinel-managed Redis, shared by the connections of {@link RedisSentinelDriver} to the same
+ * URL and credentials.
+ * <p>
+ * The master address is asked to the sentinels once, then kept up to date by a subscription to
+ * {@code +switch-master} on every sentinel, so a connection opens no sentinel socket. On a switch, the live
+ * connections are moved to the new master before their next command, and a command in flight on the old master
+ * fails at once, rather than each connection waiting for a read timeout to find out. A sentinel whose
+ * subscription breaks is subscribed to again after {@code sentinelRetryMillis}, the address being asked again
+ * in case a switch was missed meanwhile.
+ * <p>
+ * Like {@code JedisPools}, it is created by the first connection to its URL, with that connection's properties,
+ * and lives as long as the driver.
+ */
+class SentinelMaster {
+    private final static Logger LOGGER = new Logger(SentinelMaster.class);
+
+    private static final String SWITCH_MASTER_CHANNEL = "+switch-master";
+
+    private static final ConcurrentMap<List<Object>, SentinelMaster> MASTERS = new ConcurrentHashMap<>();
+
+    private final RedisSentinelConnectionInfo info;
+    private final JedisPoolConfig poolConfig;
+    private volatile HostAndPort master;
+    /**
+     * sockets to the current master, null unless the {@code pool} property is set
+     */
+    private volatile JedisPool pool;
+    /**
+     * the open connections, moved to the new master on a switch
+     */
+    private final Set<JedisRedisClient> clients = ConcurrentHashMap.newKeySet();
+    private final LongAdder switches = new LongAdder();
+
+    private SentinelMaster(RedisSentinelConnectionInfo info) {
+        this.info = info;
+        this.poolConfig = new JedisPoolConfig();
+        this.poolConfig.setMaxTotal(info.getPoolMaxTotal());
+        this.poolConfig.setMaxIdle(info.getPoolMaxIdle());
+        this.poolConfig.setMinIdle(info.getPoolMinIdle());
+        this.poolConfig.setMaxWaitMillis(info.getPoolMaxWaitMillis());
+        this.poolConfig.setMinEvictableIdleTimeMillis(info.getPoolMinEvictableIdleTimeMillis());
+        this.poolConfig.setTimeBetweenEvictionRunsMillis(info.getPoolTimeBetweenEvictionRunsMillis());
+
+        this.master = this.resolve();
+        if (info.isPool()) {
+            this.pool = this.createPool(this.master);
+        }
+        LOGGER.log("master %s is %s", info.getMasterName(), this.master);
+    }
+
+    static SentinelMaster of(RedisSentinelConnectionInfo info) {
+        List<Object> key = Arrays.asList(
+                info.getSentinels(), info.getMasterName(), info.getDbIndex(), info.getUsername(), info.getPassword(),
+                info.getSentinelPassword(), info.isSsl(), info.getTimeout(), info.isPool()
+        );
+        return MASTERS.computeIfAbsent(key, k -> {
+            SentinelMaster master = new SentinelMaster(info);
+            for (HostAndPort sentinel : info.getSentinels()) {
+                Thread listener = new Thread(() -> master.listen(sentinel), "redis-jdbc-sentinel-" + sentinel);
+                listener.setDaemon(true);
+                listener.start();
+            }
+            return master;
+        });
+    }
+
+    /**
+     * @return a socket to the current master, authenticated and on the db of the URL
+     */
+    Jedis connect() {
+        JedisPool pool = this.pool;
+        if (pool != null) {
+            return pool.getResource();
+        }
+        HostAndPort master = this.master;
+        Jedis jedis = new Jedis(master.getHost(), master.getPort(), this.info.getTimeout(), this.info.getTimeout(), this.info.isSsl());
+        try {
+            jedis.connect();
+            if (this.info.getUsername() != null) {
+                jedis.auth(this.info.getUsername(), this.info.getPassword());
+            } else if (this.info.getPassword() != null) {
+                jedis.auth(this.info.getPassword());
+            }
+            if (this.info.getDbIndex() != 0) {
+                jedis.select(this.info.getDbIndex());
+            }
+            return jedis;
+        } catch (RuntimeException e) {
+            jedis.close();
+            throw e;
+        }
+    }
+
+    void register(JedisRedisClient client) {
+        this.clients.add(client);
+    }
+
+    void unregister(JedisRedisClient client) {
+        this.clients.remove(client);
+    }
+
+    /**
+     * Ask the sentinels in turn for the address of the master.
+     */
+    private HostAndPort resolve() {
+        JedisException lastFailure = null;
+        for (HostAndPort sentinel : this.info.getSentinels()) {
+            try (Jedis jedis = this.openSentinel(sentinel)) {
+                List<String> address = jedis.sentinelGetMasterAddrByName(this.info.getMasterName());
+                if (address != null && address.size() == 2) {
+                    return new HostAndPort(address.get(0), Integer.parseInt(address.get(1)));
+                }
+                LOGGER.log("sentinel %s does not know master %s", sentinel, this.info.getMasterName());
+            } catch (JedisException e) {
+                LOGGER.log("cannot ask sentinel %s: %s", sentinel, e);
+                lastFailure = e;
+            }
+        }
+        throw new RuntimeException(String.format("No sentinel of %s knows master %s",
+                this.info.getSentinels(), this.info.getMasterName()), lastFailure);
+    }
+
+    private Jedis openSentinel(HostAndPort sentinel) {
+        Jedis jedis = new Jedis(sentinel.getHost(), sentinel.getPort(), this.info.getTimeout());
+        if (this.info.getSentinelPassword() != null) {
+            try {
+                jedis.auth(this.info.getSentinelPassword());
+            } catch (RuntimeException e) {
+                jedis.close();
+                throw e;
+            }
+        }
+        return jedis;
+    }
+
+    /**
+     * Subscribe to {@code +switch-master} on the sentinel, for ever.
+     */
+    private void listen(HostAndPort sentinel) {
+        while (true) {
+            try (Jedis jedis = this.openSentinel(sentinel)) {
+                List<String> address = jedis.sentinelGetMasterAddrByName(this.info.getMasterName());
+                if (address != null && address.size() == 2) {
+                    this.switchTo(new HostAndPort(address.get(0), Integer.parseInt(address.get(1))));
+                }
+                jedis.subscribe(new JedisPubSub() {
+                    @Override
+                    public void onMessage(String channel, String message) {
+                        // <master name> <old ip> <old port> <new ip> <new port>
+                        String[] switchMaster = message.split(" ");
+                        if (switchMaster.length == 5 && switchMaster[0].equals(SentinelMaster.this.info.getMasterName())) {
+                            SentinelMaster.this.switchTo(new HostAndPort(switchMaster[3], Integer.parseInt(switchMaster[4])));
+                        }
+                    }
+                }, SWITCH_MASTER_CHANNEL);
+            } catch (JedisException e) {
+                LOGGER.log("subscription to sentinel %s lost: %s", sentinel, e);
+            } catch (RuntimeException e) {
+                LOGGER.warn("subscription to sentinel %s failed", sentinel, e);
+            }
+            try {
+                Thread.sleep(this.info.getSentinelRetryMillis());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Move to the new master, unless already there: every sentinel reports the same switch.
+     */
+    private synchronized void switchTo(HostAndPort newMaster) {
+        if (newMaster.equals(this.master)) {
+            return;
+        }
+        LOGGER.log("master %s switched from %s to %s", this.info.getMasterName(), this.master, newMaster);
+        this.master = newMaster;
+        JedisPool oldPool = this.pool;
+        if (oldPool != null) {
+            this.pool = this.createPool(newMaster);
+            // the borrowed sockets are destroyed as they are given back
+            oldPool.close();
+        }
+        this.switches.increment();
+        for (JedisRedisClient client : this.clients) {
+            client.reconnect();
+        }
+    }
+
+    private JedisPool createPool(HostAndPort master) {
+        return new JedisPool(this.poolConfig, master.getHost(), master.getPort(), this.info.getTimeout(),
+                this.info.getTimeout(), this.info.getUsername(), this.info.getPassword(), this.info.getDbIndex(),
+                null, this.info.isSsl(), null, null, null);
+    }
+
+    HostAndPort getMaster() {
+        return this.master;
+    }
+
+    long getSwitches() {
+        return this.switches.sum();
+    }
+}
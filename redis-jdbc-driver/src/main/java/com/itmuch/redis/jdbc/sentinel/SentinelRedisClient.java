@@ -0,0 +1,38 @@
+package com.itmuch.redis.jdbc.sentinel;
+
+import com.itmuch.redis.jdbc.conf.RedisSentinelConnectionInfo;
+import com.itmuch.redis.jdbc.redis.JedisRedisClient;
+import redis.clients.jedis.HostAndPort;
+
+/**
+ * A connection to the master of a {@link SentinelMaster}, moved to the new master when the sentinels switch it.
+ */
+public class SentinelRedisClient extends JedisRedisClient {
+    private final SentinelMaster master;
+
+    SentinelRedisClient(SentinelMaster master, RedisSentinelConnectionInfo connectionInfo) {
+        super(master::connect, connectionInfo, connectionInfo.isPool());
+        this.master = master;
+        master.register(this);
+    }
+
+    /**
+     * @return the address of the master as last reported by the sentinels
+     */
+    public HostAndPort getMaster() {
+        return this.master.getMaster();
+    }
+
+    /**
+     * @return the master switches seen since the first connection to this URL
+     */
+    public long getMasterSwitches() {
+        return this.master.getSwitches();
+    }
+
+    @Override
+    public void close() {
+        this.master.unregister(this);
+        super.close();
+    }
+}
@@ -0,0 +1,105 @@
+package com.itmuch.redis.jdbc;
+
+import org.junit.Test;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class KeyPositionsTest {
+    /**
+     * command line, then its first key or null if it has none
+     */
+    private static final String[][] CASES = {
+            // key first
+            {"GET k", "k"},
+            {"SET k v", "k"},
+            {"MGET k1 k2", "k1"},
+            {"HSET h f v", "h"},
+            {"MY.MODULECMD k x", "k"},
+            // keyless
+            {"PING", null},
+            {"DBSIZE", null},
+            {"INFO keyspace", null},
+            {"SCAN 0 MATCH k*", null},
+            {"KEYS *", null},
+            {"CONFIG GET maxmemory", null},
+            {"CLUSTER INFO", null},
+            {"SCRIPT LOAD return", null},
+            {"FUNCTION LIST", null},
+            {"PUBLISH ch msg", null},
+            {"WAIT 1 0", null},
+            {"RANDOMKEY", null},
+            {"FLUSHDB", null},
+            {"TIME", null},
+            {"GET", null},
+            // EVAL and friends: script, numkeys, key...
+            {"EVAL return 2 k1 k2", "k1"},
+            {"EVAL return 0 arg", null},
+            {"EVALSHA abc 1 k", "k"},
+            {"EVAL_RO return 1 k", "k"},
+            {"FCALL f 1 k a", "k"},
+            {"EVAL return x k", null},
+            {"EVAL return 1", null},
+            // numkeys, key...
+            {"ZUNION 2 z1 z2", "z1"},
+            {"ZINTERCARD 2 z1 z2 LIMIT 1", "z1"},
+            {"SINTERCARD 2 s1 s2", "s1"},
+            {"SINTERCARD 0", null},
+            {"LMPOP 1 l LEFT", "l"},
+            // timeout, numkeys, key...
+            {"BLMPOP 0 2 l1 l2 LEFT COUNT 2", "l1"},
+            {"BZMPOP 1.5 1 z MIN", "z"},
+            {"BZMPOP 0", null},
+            // STREAMS
+            {"XREAD STREAMS s1 s2 0 0", "s1"},
+            {"XREAD COUNT 10 BLOCK 100 STREAMS s 0", "s"},
+            {"XREADGROUP GROUP g c COUNT 1 STREAMS s >", "s"},
+            {"XREADGROUP GROUP g c NOACK STREAMS s1 s2 > >", "s1"},
+            {"XREAD COUNT 1", null},
+            {"XADD s * f v", "s"},
+            // subcommand first
+            {"OBJECT ENCODING k", "k"},
+            {"OBJECT FREQ k", "k"},
+            {"OBJECT HELP", null},
+            {"XINFO STREAM s FULL", "s"},
+            {"XINFO GROUPS s", "s"},
+            {"XINFO HELP", null},
+            {"XGROUP CREATE s g $ MKSTREAM", "s"},
+            {"BITOP AND dest k1 k2", "dest"},
+            {"MEMORY USAGE k SAMPLES 5", "k"},
+            {"MEMORY STATS", null},
+            {"MEMORY DOCTOR", null},
+            {"MEMORY USAGE", null},
+            // keys elsewhere
+            {"STRALGO LCS KEYS k1 k2", "k1"},
+            {"MIGRATE h 6379 k 0 1000", "k"},
+            {"MIGRATE h 6379 \"\" 0 1000 KEYS k1 k2", "k1"},
+    };
+
+    @Test
+    public void firstKey() {
+        for (String[] testCase : CASES) {
+            String[] tokens = testCase[0].split(" ");
+            byte[][] params = new byte[tokens.length - 1][];
+            for (int i = 1; i < tokens.length; i++) {
+                params[i - 1] = SafeEncoder.encode("\"\"".equals(tokens[i]) ? "" : tokens[i]);
+            }
+            int position = KeyPositions.firstKey(tokens[0], params);
+            String key = position == KeyPositions.NO_KEY ? null : SafeEncoder.encode(params[position]);
+            assertEquals(testCase[0], testCase[1], key);
+        }
+    }
+
+    @Test
+    public void commandInAnyCase() {
+        byte[][] params = {SafeEncoder.encode("return"), SafeEncoder.encode("1"), SafeEncoder.encode("k")};
+        assertEquals(2, KeyPositions.firstKey("eval", params));
+        assertEquals(2, KeyPositions.firstKey("EvalSha", params));
+        assertEquals(KeyPositions.NO_KEY, KeyPositions.firstKey("ping", new byte[0][]));
+        assertEquals(Arrays.asList(0, KeyPositions.NO_KEY), Arrays.asList(
+                KeyPositions.firstKey("get", new byte[][]{SafeEncoder.encode("k")}),
+                KeyPositions.firstKey("dbsize", new byte[0][])));
+    }
+}
@@ -0,0 +1,72 @@
+package com.itmuch.redis.jdbc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicaBalancerTest {
+
+    private static Map<String, Integer> picks(ReplicaBalancer<String> balancer, List<String> replicas, int reads) {
+        Map<String, Integer> picks = new HashMap<>();
+        for (int i = 0; i < reads; i++) {
+            picks.merge(balancer.choose(replicas), 1, Integer::sum);
+        }
+        return picks;
+    }
+
+    @Test
+    public void latencySpreadsReadsButSkipsTheSlowest() {
+        ReplicaBalancer<String> balancer = new ReplicaBalancer<>(ReplicaBalancer.Strategy.LATENCY);
+        balancer.record("fast", 1_000_000);
+        balancer.record("medium", 2_000_000);
+        balancer.record("slow", 3_000_000);
+
+        Map<String, Integer> picks = picks(balancer, Arrays.asList("fast", "medium", "slow"), 3000);
+        // fast wins the pairs it is in, 2/3 of them, medium the pair with slow
+        assertTrue(picks.get("fast") > 1700);
+        assertTrue(picks.get("medium") > 700);
+        assertEquals(null, picks.get("slow"));
+    }
+
+    @Test
+    public void latencyMeasuresNewReplicas() {
+        ReplicaBalancer<String> balancer = new ReplicaBalancer<>(ReplicaBalancer.Strategy.LATENCY);
+        balancer.record("a", 1_000_000);
+        balancer.record("b", 1_000_000);
+
+        Map<String, Integer> picks = picks(balancer, Arrays.asList("a", "b", "new"), 300);
+        assertTrue(picks.get("new") > 100);
+
+        balancer.record("b", 9_000_000);
+        balancer.forget("b");
+        assertEquals(0, balancer.latencyOf("b"));
+    }
+
+    @Test
+    public void roundRobin() {
+        ReplicaBalancer<String> balancer = new ReplicaBalancer<>(ReplicaBalancer.Strategy.ROUND_ROBIN);
+        List<String> replicas = Arrays.asList("a", "b", "c");
+        assertEquals("a", balancer.choose(replicas));
+        assertEquals("b", balancer.choose(replicas));
+        assertEquals("c", balancer.choose(replicas));
+        assertEquals("a", balancer.choose(replicas));
+    }
+
+    @Test
+    public void strategyNames() {
+        assertEquals(ReplicaBalancer.Strategy.ROUND_ROBIN, ReplicaBalancer.Strategy.of("roundRobin"));
+        assertEquals(ReplicaBalancer.Strategy.ROUND_ROBIN, ReplicaBalancer.Strategy.of("round-robin"));
+        assertEquals(ReplicaBalancer.Strategy.LATENCY, ReplicaBalancer.Strategy.of("LATENCY"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownStrategy() {
+        ReplicaBalancer.Strategy.of("fastest");
+    }
+}
@@ -0,0 +1,163 @@
+package com.itmuch.redis.jdbc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of many virtual threads sharing a few connections, each thread running GETs in a loop.
+ * Needs a Redis server, and Java 21 for virtual threads (it falls back to platform threads before).
+ * <p>
+ * Arguments: {@code [url] [threads] [connections] [commandsPerThread]}, by default
+ * {@code jdbc:redis://localhost:6379/0 10000 4 100}. Compare a plain URL with one ending in {@code ?multiplexed=true}.
+ * <p>
+ * A virtual thread is pinned to its carrier when it blocks holding a monitor. On Java 21, run with
+ * {@code -Djdk.tracePinnedThreads=full} to have the JVM print every pinning. On platform threads, the benchmark
+ * samples the stacks of its threads instead and counts those blocked on socket I/O while holding a monitor:
+ * each would pin a carrier on a virtual thread.
+ */
+public class VirtualThreadBenchmark {
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "jdbc:redis://localhost:6379/0";
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int commandsPerThread = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        Class.forName("com.itmuch.redis.jdbc.redis.RedisDriver");
+        Connection[] pool = new Connection[connections];
+        for (int i = 0; i < connections; i++) {
+            pool[i] = DriverManager.getConnection(url);
+        }
+        try (Statement statement = pool[0].createStatement()) {
+            statement.execute("SET benchmark:vt value");
+        }
+
+        boolean virtual = supportsVirtualThreads();
+        ExecutorService executor = virtual ? newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+        PinningSampler sampler = virtual ? null : new PinningSampler();
+        AtomicLong failures = new AtomicLong();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Connection connection = pool[i % connections];
+            executor.execute(() -> {
+                try (Statement statement = connection.createStatement()) {
+                    for (int j = 0; j < commandsPerThread; j++) {
+                        ResultSet resultSet = statement.executeQuery("GET benchmark:vt");
+                        resultSet.next();
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        long commands = (long) threads * commandsPerThread;
+        System.out.printf("%s %s threads on %s connections (%s): %s commands in %s ms, %.0f ops/s, %s failed threads%n",
+                threads, virtual ? "virtual" : "platform", connections, url, commands,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), commands * 1e9 / elapsed, failures.get());
+        if (sampler != null) {
+            sampler.stop();
+            System.out.printf("%s of %s sampled threads in socket I/O held a monitor%s%n",
+                    sampler.pinning, sampler.inIo, sampler.example == null ? "" : ", e.g. " + sampler.example);
+        }
+
+        for (Connection connection : pool) {
+            connection.close();
+        }
+    }
+
+    private static boolean supportsVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            System.out.println("no virtual threads before Java 21, using platform threads");
+            return false;
+        }
+    }
+
+    /**
+     * {@code Executors.newVirtualThreadPerTaskExecutor()} through reflection, the build targeting Java 8.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws ReflectiveOperationException {
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        ThreadFactory factory = (ThreadFactory) builder.getClass().getMethod("factory").invoke(builder);
+        return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+    }
+
+    /**
+     * Samples the stacks of the threads every few milliseconds, counting those blocked in socket I/O while
+     * holding a monitor.
+     */
+    private static class PinningSampler {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final Thread thread = new Thread(this::sample, "pinning-sampler");
+        private volatile boolean running = true;
+        private long inIo;
+        private long pinning;
+        private String example;
+
+        PinningSampler() {
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        private void sample() {
+            while (this.running) {
+                for (ThreadInfo info : this.threads.dumpAllThreads(true, false)) {
+                    this.count(info);
+                }
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void count(ThreadInfo info) {
+            StackTraceElement[] stack = info.getStackTrace();
+            if (stack.length == 0 || !stack[0].getClassName().startsWith("sun.nio.ch.")
+                    && !stack[0].getClassName().startsWith("java.net.")) {
+                return;
+            }
+            this.inIo++;
+            for (MonitorInfo monitor : info.getLockedMonitors()) {
+                if (!lockedByJdk(monitor)) {
+                    this.pinning++;
+                    if (this.example == null) {
+                        this.example = monitor.getClassName() + " locked at " + monitor.getLockedStackFrame();
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * The JDK's own monitors around the socket, gone with the virtual-thread friendly sockets of Java 21.
+         */
+        private static boolean lockedByJdk(MonitorInfo monitor) {
+            String lockedBy = monitor.getLockedStackFrame().getClassName();
+            return lockedBy.startsWith("java.") || lockedBy.startsWith("sun.") || lockedBy.startsWith("jdk.");
+        }
+
+        void stop() throws InterruptedException {
+            this.running = false;
+            this.thread.join();
+        }
+    }
+}
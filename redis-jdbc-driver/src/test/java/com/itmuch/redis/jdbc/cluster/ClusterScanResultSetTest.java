@@ -0,0 +1,174 @@
+package com.itmuch.redis.jdbc.cluster;
+
+import com.itmuch.redis.jdbc.RedisScanResultSet;
+import com.itmuch.redis.jdbc.SqlParser;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.commands.ProtocolCommand;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterScanResultSetTest {
+
+    @Test
+    public void atMostMaxInFlightPages() throws SQLException {
+        int masterCount = ClusterScanResultSet.MAX_IN_FLIGHT * 2 + 3;
+        int pagesPerMaster = 3;
+        ManualExecutor executor = new ManualExecutor();
+        Map<String, JedisPool> masters = masters(masterCount, pagesPerMaster);
+
+        ClusterScanResultSet resultSet = new ClusterScanResultSet(template(), masters, executor);
+        assertEquals(ClusterScanResultSet.MAX_IN_FLIGHT, executor.queued.size());
+
+        Set<String> keys = new HashSet<>();
+        int pagesTaken = 0;
+        while (!executor.queued.isEmpty()) {
+            executor.runNext();
+            // one key per page: each row takes a page; a page asked twice, by two requests of a master
+            // in flight with the same cursor, would repeat its key
+            assertTrue(resultSet.next());
+            assertTrue(keys.add(resultSet.getString(1)));
+            pagesTaken++;
+
+            int inFlight = executor.submitted - pagesTaken;
+            int pagesLeft = masterCount * pagesPerMaster - pagesTaken;
+            assertEquals(Math.min(ClusterScanResultSet.MAX_IN_FLIGHT, Math.min(pagesLeft, masterCount)), inFlight);
+            assertEquals(inFlight, executor.queued.size());
+        }
+        assertEquals(masterCount * pagesPerMaster, keys.size());
+        assertFalse(resultSet.next());
+    }
+
+    @Test
+    public void fewerMastersThanMaxInFlight() throws SQLException {
+        ManualExecutor executor = new ManualExecutor();
+        ClusterScanResultSet resultSet = new ClusterScanResultSet(template(), masters(3, 2), executor);
+        // one page per master at a time
+        assertEquals(3, executor.queued.size());
+
+        executor.runNext();
+        assertTrue(resultSet.next());
+        assertEquals(3, executor.queued.size());
+    }
+
+    @Test
+    public void noMaster() throws SQLException {
+        ManualExecutor executor = new ManualExecutor();
+        ClusterScanResultSet resultSet = new ClusterScanResultSet(template(), Collections.emptyMap(), executor);
+        assertEquals(0, executor.submitted);
+        assertFalse(resultSet.next());
+    }
+
+    @Test
+    public void closeRequestsNoMorePage() throws SQLException {
+        ManualExecutor executor = new ManualExecutor();
+        ClusterScanResultSet resultSet = new ClusterScanResultSet(template(),
+                masters(ClusterScanResultSet.MAX_IN_FLIGHT * 2, 2), executor);
+        executor.runNext();
+        assertTrue(resultSet.next());
+        int submitted = executor.submitted;
+
+        resultSet.close();
+        while (!executor.queued.isEmpty()) {
+            executor.runNext();
+        }
+        assertEquals(submitted, executor.submitted);
+    }
+
+    private static RedisScanResultSet template() {
+        return RedisScanResultSet.of(SqlParser.parse("SCAN 0", null), null, 1, false, null);
+    }
+
+    private static Map<String, JedisPool> masters(int count, int pages) {
+        Map<String, JedisPool> masters = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            masters.put("node" + i + ":7000", new FakeMaster("node" + i, pages));
+        }
+        return masters;
+    }
+
+    /**
+     * Runs the tasks one at a time, when the test says.
+     */
+    private static class ManualExecutor extends AbstractExecutorService {
+        private final Deque<Runnable> queued = new ArrayDeque<>();
+        private int submitted = 0;
+
+        void runNext() {
+            this.queued.poll().run();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            this.submitted++;
+            this.queued.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    /**
+     * A master answering SCAN with one key per page, its cursor counting the pages.
+     */
+    private static class FakeMaster extends JedisPool {
+        private final String name;
+        private final int pages;
+
+        FakeMaster(String name, int pages) {
+            this.name = name;
+            this.pages = pages;
+        }
+
+        @Override
+        public Jedis getResource() {
+            return new Jedis() {
+                @Override
+                public Object sendCommand(ProtocolCommand cmd, byte[]... args) {
+                    int page = Integer.parseInt(SafeEncoder.encode(args[0]));
+                    String next = page + 1 == FakeMaster.this.pages ? "0" : String.valueOf(page + 1);
+                    return Arrays.asList(SafeEncoder.encode(next),
+                            Collections.singletonList(SafeEncoder.encode(FakeMaster.this.name + ":" + page)));
+                }
+            };
+        }
+    }
+}
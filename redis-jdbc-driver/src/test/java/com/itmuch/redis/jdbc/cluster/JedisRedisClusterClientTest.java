@@ -0,0 +1,166 @@
+package com.itmuch.redis.jdbc.cluster;
+
+import org.junit.Test;
+import redis.clients.jedis.util.JedisClusterCRC16;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class JedisRedisClusterClientTest {
+
+    private static byte[][] params(String... params) {
+        byte[][] encoded = new byte[params.length][];
+        for (int i = 0; i < params.length; i++) {
+            encoded[i] = SafeEncoder.encode(params[i]);
+        }
+        return encoded;
+    }
+
+    private static List<String> decode(byte[][] params) {
+        List<String> decoded = new ArrayList<>(params.length);
+        for (byte[] param : params) {
+            decoded.add(SafeEncoder.encode(param));
+        }
+        return decoded;
+    }
+
+    private static int slot(String key) {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    @Test
+    public void hashTagsShareASlot() {
+        assertEquals(slot("{a}1"), slot("{a}2"));
+        assertNotEquals(slot("{a}1"), slot("{b}1"));
+    }
+
+    @Test
+    public void splitBySlotInOrderOfFirstAppearance() {
+        byte[][] params = params("{b}1", "{a}1", "{b}2", "{c}1", "{a}2");
+        Map<Integer, List<Integer>> bySlot = JedisRedisClusterClient.keyIndexesBySlot(params, 1);
+
+        assertEquals(Arrays.asList(slot("{b}"), slot("{a}"), slot("{c}")), new ArrayList<>(bySlot.keySet()));
+        assertEquals(Arrays.asList(Arrays.asList(0, 2), Arrays.asList(1, 4), Collections.singletonList(3)),
+                new ArrayList<>(bySlot.values()));
+
+        List<byte[][]> split = JedisRedisClusterClient.splitParams(params, 1, bySlot);
+        assertEquals(Arrays.asList("{b}1", "{b}2"), decode(split.get(0)));
+        assertEquals(Arrays.asList("{a}1", "{a}2"), decode(split.get(1)));
+        assertEquals(Collections.singletonList("{c}1"), decode(split.get(2)));
+    }
+
+    @Test
+    public void singleSlot() {
+        Map<Integer, List<Integer>> bySlot = JedisRedisClusterClient.keyIndexesBySlot(params("{a}1", "{a}2", "{a}3"), 1);
+        assertEquals(1, bySlot.size());
+        assertEquals(Arrays.asList(0, 1, 2), bySlot.get(slot("{a}")));
+    }
+
+    @Test
+    public void repeatedKey() {
+        byte[][] params = params("{a}1", "{b}1", "{a}1");
+        Map<Integer, List<Integer>> bySlot = JedisRedisClusterClient.keyIndexesBySlot(params, 1);
+        assertEquals(Arrays.asList(0, 2), bySlot.get(slot("{a}")));
+
+        List<Object> replies = Arrays.asList(
+                Arrays.asList(SafeEncoder.encode("x"), SafeEncoder.encode("x")),
+                Collections.singletonList(null));
+        List<?> values = (List<?>) JedisRedisClusterClient.mergeSlotReplies("MGET", params.length, bySlot, replies);
+        assertEquals(3, values.size());
+        assertArrayEquals(SafeEncoder.encode("x"), (byte[]) values.get(0));
+        assertNull(values.get(1));
+        assertArrayEquals(SafeEncoder.encode("x"), (byte[]) values.get(2));
+    }
+
+    @Test
+    public void mgetValuesInTheOrderOfTheKeys() {
+        byte[][] params = params("{a}1", "{b}1", "{a}2", "{c}1");
+        Map<Integer, List<Integer>> bySlot = JedisRedisClusterClient.keyIndexesBySlot(params, 1);
+        // one reply per slot, its values in the order of the keys of the slot
+        List<Object> replies = Arrays.asList(
+                Arrays.asList(SafeEncoder.encode("a1"), SafeEncoder.encode("a2")),
+                Collections.singletonList(SafeEncoder.encode("b1")),
+                Collections.singletonList(null));
+
+        List<?> values = (List<?>) JedisRedisClusterClient.mergeSlotReplies("mget", params.length, bySlot, replies);
+        assertEquals(4, values.size());
+        assertArrayEquals(SafeEncoder.encode("a1"), (byte[]) values.get(0));
+        assertArrayEquals(SafeEncoder.encode("b1"), (byte[]) values.get(1));
+        assertArrayEquals(SafeEncoder.encode("a2"), (byte[]) values.get(2));
+        assertNull(values.get(3));
+    }
+
+    @Test
+    public void countsAreSummed() {
+        Map<Integer, List<Integer>> bySlot = JedisRedisClusterClient.keyIndexesBySlot(params("{a}1", "{b}1", "{a}2"), 1);
+        for (String command : new String[]{"DEL", "UNLINK", "EXISTS", "TOUCH"}) {
+            assertEquals(command, 3L, JedisRedisClusterClient.mergeSlotReplies(command, 3, bySlot, Arrays.asList(2L, 1L)));
+        }
+    }
+
+    @Test
+    public void msetKeepsKeysWithTheirValues() {
+        byte[][] params = params("{a}1", "v1", "{b}1", "v2", "{a}2", "v3");
+        Map<Integer, List<Integer>> bySlot = JedisRedisClusterClient.keyIndexesBySlot(params, 2);
+        assertEquals(Arrays.asList(Arrays.asList(0, 4), Collections.singletonList(2)), new ArrayList<>(bySlot.values()));
+
+        List<byte[][]> split = JedisRedisClusterClient.splitParams(params, 2, bySlot);
+        assertEquals(Arrays.asList("{a}1", "v1", "{a}2", "v3"), decode(split.get(0)));
+        assertEquals(Arrays.asList("{b}1", "v2"), decode(split.get(1)));
+
+        Object ok = SafeEncoder.encode("OK");
+        assertEquals(ok, JedisRedisClusterClient.mergeSlotReplies("MSET", params.length, bySlot, Arrays.asList(ok, ok)));
+    }
+
+    @Test
+    public void msetValueIsNotAKey() {
+        // the values would land in other slots if taken for keys
+        byte[][] params = params("{a}1", "{b}", "{a}2", "{c}");
+        assertEquals(1, JedisRedisClusterClient.keyIndexesBySlot(params, 2).size());
+    }
+
+    @Test
+    public void dbsizeIsSummed() {
+        assertEquals(10L, JedisRedisClusterClient.mergeBroadcast("DBSIZE",
+                Arrays.asList("h:7000", "h:7001", "h:7002"), Arrays.asList(3L, 0L, 7L)));
+    }
+
+    @Test
+    public void keysAreConcatenated() {
+        List<Object> replies = Arrays.asList(
+                Arrays.asList(SafeEncoder.encode("k1"), SafeEncoder.encode("k2")),
+                Collections.emptyList(),
+                Collections.singletonList(SafeEncoder.encode("k3")));
+        List<?> keys = (List<?>) JedisRedisClusterClient.mergeBroadcast("KEYS", Arrays.asList("a", "b", "c"), replies);
+        assertEquals(3, keys.size());
+        assertArrayEquals(SafeEncoder.encode("k3"), (byte[]) keys.get(2));
+
+        List<?> scan = (List<?>) JedisRedisClusterClient.mergeBroadcast("SCAN", Arrays.asList("a", "b", "c"), replies);
+        assertArrayEquals(SafeEncoder.encode("0"), (byte[]) scan.get(0));
+        assertEquals(3, ((List<?>) scan.get(1)).size());
+    }
+
+    @Test
+    public void infoRowsAreTaggedWithTheirNode() {
+        List<Object> replies = Arrays.asList(SafeEncoder.encode("# Server\r\nrole:master"), SafeEncoder.encode("# Server"));
+        List<?> rows = (List<?>) JedisRedisClusterClient.mergeBroadcast("INFO", Arrays.asList("h:7000", "h:7001"), replies);
+        assertEquals(2, rows.size());
+        assertEquals("node:h:7000\r\n# Server\r\nrole:master", SafeEncoder.encode((byte[]) rows.get(0)));
+        assertEquals("node:h:7001\r\n# Server", SafeEncoder.encode((byte[]) rows.get(1)));
+    }
+
+    @Test
+    public void flushRepliesOnce() {
+        Object ok = SafeEncoder.encode("OK");
+        assertEquals(ok, JedisRedisClusterClient.mergeBroadcast("FLUSHDB", Arrays.asList("a", "b"), Arrays.asList(ok, ok)));
+    }
+}
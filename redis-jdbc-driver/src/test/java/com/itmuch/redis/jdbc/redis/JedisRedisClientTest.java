@@ -0,0 +1,89 @@
+package com.itmuch.redis.jdbc.redis;
+
+import com.itmuch.redis.jdbc.RedisConnection;
+import com.itmuch.redis.jdbc.conf.RedisConnectionInfo;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JedisRedisClientTest {
+
+    private static JedisRedisClient pooledClient(FakeJedis jedis) {
+        RedisConnectionInfo info = new RedisConnectionInfo("jdbc:redis://localhost:6379/0", new Properties());
+        return new JedisRedisClient(() -> jedis, info, true);
+    }
+
+    @Test
+    public void pooledSocketIsGivenBackOnce() {
+        FakeJedis jedis = new FakeJedis();
+        JedisRedisClient client = pooledClient(jedis);
+        client.close();
+        client.close();
+        assertEquals(1, jedis.closes);
+    }
+
+    @Test
+    public void connectionClosedTwice() throws Exception {
+        FakeJedis jedis = new FakeJedis();
+        Connection connection = new RedisConnection(pooledClient(jedis), "0", new Properties());
+        connection.close();
+        connection.close();
+        assertTrue(connection.isClosed());
+        assertEquals(1, jedis.closes);
+    }
+
+    @Test
+    public void pooledSocketGoesBackOnTheDbOfTheUrl() throws Exception {
+        FakeJedis jedis = new FakeJedis();
+        Connection connection = new RedisConnection(pooledClient(jedis), "0", new Properties());
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SELECT 2");
+        }
+        connection.close();
+        assertEquals(0, jedis.db);
+        assertEquals(1, jedis.closes);
+    }
+
+    @Test
+    public void selectStatementGoesThroughSelect() throws Exception {
+        FakeJedis jedis = new FakeJedis();
+        try (Connection connection = new RedisConnection(pooledClient(jedis), "0", new Properties());
+             Statement statement = connection.createStatement()) {
+            statement.execute("SELECT 2");
+            assertEquals(2, jedis.db);
+
+            connection.setSchema("5");
+            assertEquals(5, jedis.db);
+        }
+    }
+
+    /**
+     * A socket that never connects, keeping track of its db and of the times it is given back.
+     */
+    static class FakeJedis extends Jedis {
+        int db;
+        int closes;
+
+        @Override
+        public int getDB() {
+            return this.db;
+        }
+
+        @Override
+        public String select(int index) {
+            this.db = index;
+            return "OK";
+        }
+
+        @Override
+        public void close() {
+            this.closes++;
+        }
+    }
+}